@@ -0,0 +1,5 @@
+#!/bin/sh
+# Run the load generator against an in-process service, see LoadGenerator for the options, e.g.:
+#   ./run_loadtest.sh shape=10x10x100x100 rate=5000 duration=60
+# The latency distributions are written to target/loadtest/*.hgrm.
+cd "`dirname "$0"`/.." && mvn test -Ploadtest -Dloadtest.args="$*"
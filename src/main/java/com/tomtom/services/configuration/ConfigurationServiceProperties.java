@@ -19,8 +19,10 @@ package com.tomtom.services.configuration;
 import com.tomtom.speedtools.guice.HasProperties;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.Locale;
 
 /**
  * This class contains the properties which are specific for the Configuration Service.
@@ -29,17 +31,161 @@ import javax.inject.Named;
 @SuppressWarnings("squid:S2637")
 public class ConfigurationServiceProperties implements HasProperties {
 
+    /**
+     * Execution modes of the handlers of requests.
+     */
+    public enum ExecutionMode {
+
+        /**
+         * Handlers are executed by the SpeedTools resource processor, on the Akka execution context.
+         */
+        PROCESSOR,
+
+        /**
+         * Handlers are executed directly on the container thread of the request.
+         */
+        DIRECT,
+
+        /**
+         * Handlers are executed on a virtual thread per request. Requires a JRE with virtual threads.
+         */
+        VIRTUAL
+    }
+
+    /**
+     * Default maximum number of search results in the result cache.
+     */
+    public static final int DEFAULT_RESULT_CACHE_SIZE = 10000;
+
+    /**
+     * Default interval to reload the configuration; 0 means the configuration is not reloaded.
+     */
+    public static final int DEFAULT_RELOAD_INTERVAL_SECS = 0;
+
+    /**
+     * Default for watching configuration files; files are not watched by default.
+     */
+    public static final boolean DEFAULT_WATCH_FILES = false;
+
+    /**
+     * Default last-known-good snapshot file; no snapshot is kept by default.
+     */
+    @Nullable
+    public static final String DEFAULT_LAST_KNOWN_GOOD_FILE = null;
+
+    /**
+     * Default execution mode of the handlers of requests.
+     */
+    @Nonnull
+    public static final ExecutionMode DEFAULT_EXECUTION_MODE = ExecutionMode.PROCESSOR;
+
     @Nonnull
     private final String startupConfigurationURI;
 
+    private final int resultCacheSize;
+
+    private final int reloadIntervalSecs;
+
+    private final boolean watchFiles;
+
+    @Nullable
+    private final String lastKnownGoodFile;
+
+    @Nonnull
+    private final ExecutionMode executionMode;
+
     @Inject
     public ConfigurationServiceProperties(
-            @Named("ConfigurationService.startupConfigurationURI") @Nonnull final String startupConfigurationURI) {
+            @Named("ConfigurationService.startupConfigurationURI") @Nonnull final String startupConfigurationURI,
+            @Named("ConfigurationService.resultCacheSize") final int resultCacheSize,
+            @Named("ConfigurationService.reloadIntervalSecs") final int reloadIntervalSecs,
+            @Named("ConfigurationService.watchFiles") final boolean watchFiles,
+            @Named("ConfigurationService.lastKnownGoodFile") @Nullable final String lastKnownGoodFile,
+            @Named("ConfigurationService.executionMode") @Nonnull final String executionMode) {
+        assert resultCacheSize >= 0 : "resultCacheSize must be >= 0";
+        assert reloadIntervalSecs >= 0 : "reloadIntervalSecs must be >= 0";
         this.startupConfigurationURI = startupConfigurationURI.trim();
+        this.resultCacheSize = resultCacheSize;
+        this.reloadIntervalSecs = reloadIntervalSecs;
+        this.watchFiles = watchFiles;
+        this.lastKnownGoodFile = ((lastKnownGoodFile == null) || lastKnownGoodFile.trim().isEmpty()) ? null : lastKnownGoodFile.trim();
+        this.executionMode = parseExecutionMode(executionMode);
+    }
+
+    public ConfigurationServiceProperties(
+            @Nonnull final String startupConfigurationURI,
+            final int resultCacheSize) {
+        this(startupConfigurationURI, resultCacheSize, DEFAULT_RELOAD_INTERVAL_SECS, DEFAULT_WATCH_FILES,
+                DEFAULT_LAST_KNOWN_GOOD_FILE, DEFAULT_EXECUTION_MODE.name());
+    }
+
+    public ConfigurationServiceProperties(@Nonnull final String startupConfigurationURI) {
+        this(startupConfigurationURI, DEFAULT_RESULT_CACHE_SIZE, DEFAULT_RELOAD_INTERVAL_SECS, DEFAULT_WATCH_FILES,
+                DEFAULT_LAST_KNOWN_GOOD_FILE, DEFAULT_EXECUTION_MODE.name());
     }
 
     @Nonnull
     public String getStartupConfigurationURI() {
         return startupConfigurationURI;
     }
+
+    /**
+     * Return the maximum number of search results in the result cache.
+     *
+     * @return Maximum number of cached search results, 0 if the result cache is disabled.
+     */
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    /**
+     * Return the interval to reload the configuration from the startup configuration URI.
+     *
+     * @return Interval in seconds, 0 if the configuration is not reloaded periodically.
+     */
+    public int getReloadIntervalSecs() {
+        return reloadIntervalSecs;
+    }
+
+    /**
+     * Return whether the configuration files are watched for changes. Only 'file:' URIs of the
+     * startup configuration and its includes are watched.
+     *
+     * @return True if the configuration is reloaded when one of its files changes.
+     */
+    public boolean isWatchFiles() {
+        return watchFiles;
+    }
+
+    /**
+     * Return the file to keep a snapshot of the last configuration which was loaded successfully in.
+     * If the startup configuration URI is an 'http:' or 'https:' URI and the file exists, the service
+     * starts with the configuration in this file and loads the startup configuration in the background.
+     *
+     * @return File name, or null if no last-known-good snapshot is kept.
+     */
+    @Nullable
+    public String getLastKnownGoodFile() {
+        return lastKnownGoodFile;
+    }
+
+    /**
+     * Return the execution mode of the handlers of requests: 'processor', 'direct' or 'virtual'.
+     *
+     * @return Execution mode.
+     */
+    @Nonnull
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    @Nonnull
+    private static ExecutionMode parseExecutionMode(@Nonnull final String executionMode) {
+        try {
+            return ExecutionMode.valueOf(executionMode.trim().toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException ignored) {
+            throw new IllegalArgumentException("ConfigurationService.executionMode must be 'processor', 'direct' or " +
+                    "'virtual', not: " + executionMode);
+        }
+    }
 }
@@ -53,6 +53,18 @@ public interface HelperResource {
     @Path("version")
     void getVersion(@Suspended @Nonnull AsyncResponse response);
 
+    /**
+     * This method returns the size and the hit, miss and eviction counters of the search result cache.
+     * <p>
+     * Return HTTP status 200.
+     *
+     * @param response Cache statistics, {@link com.tomtom.services.configuration.dto.ResultCacheDTO}.
+     */
+    @GET
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Path("cache")
+    void getResultCache(@Suspended @Nonnull AsyncResponse response);
+
     /**
      * This method returns whether the service is operational or not (status code 200 is OK).
      *
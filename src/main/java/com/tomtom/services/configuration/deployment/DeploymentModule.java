@@ -24,7 +24,10 @@ import com.tomtom.services.configuration.ConfigurationServiceProperties;
 import com.tomtom.services.configuration.HelperResource;
 import com.tomtom.services.configuration.TreeResource;
 import com.tomtom.services.configuration.implementation.Configuration;
+import com.tomtom.services.configuration.implementation.ConfigurationReloader;
+import com.tomtom.services.configuration.implementation.ConfigurationWatcher;
 import com.tomtom.services.configuration.implementation.HelperResourceImpl;
+import com.tomtom.services.configuration.implementation.RequestExecutor;
 import com.tomtom.services.configuration.implementation.TreeResourceImpl;
 import com.tomtom.speedtools.guice.GuiceConfigurationModule;
 import com.tomtom.speedtools.json.Json;
@@ -76,9 +79,18 @@ public class DeploymentModule extends GuiceConfigurationModule {
         // Bind properties.
         binder.bind(ConfigurationServiceProperties.class).in(Singleton.class);
 
+        // Bind executor of the request handlers, in the execution mode of the properties.
+        binder.bind(RequestExecutor.class).in(Singleton.class);
+
         // Bind tree data as eager singleton tor read config data immediately.
         binder.bind(Configuration.class).asEagerSingleton();
 
+        // Bind reloader of the configuration tree, which reloads it in the background.
+        binder.bind(ConfigurationReloader.class).asEagerSingleton();
+
+        // Bind watcher of the configuration files, which reloads the tree when they change.
+        binder.bind(ConfigurationWatcher.class).asEagerSingleton();
+
         // Bind start-up checking class (example).
         binder.bind(StartupCheck.class).asEagerSingleton();
 
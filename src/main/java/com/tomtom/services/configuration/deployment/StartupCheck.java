@@ -17,7 +17,10 @@
 package com.tomtom.services.configuration.deployment;
 
 import com.google.inject.Injector;
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.ConfigurationServiceProperties.ExecutionMode;
 import com.tomtom.services.configuration.implementation.Configuration;
+import com.tomtom.services.configuration.implementation.RequestExecutor;
 import com.tomtom.speedtools.maven.MavenProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,10 +43,13 @@ public class StartupCheck {
 
     private static final String REQUIRED_ENCODING = "UTF-8";
 
+    private static final int MINIMUM_JAVA_VERSION = 8;
+
     @Inject
     private StartupCheck(
             @Nonnull final Injector injector,
             @Nonnull final MavenProperties mavenProperties,
+            @Nonnull final ConfigurationServiceProperties configurationServiceProperties,
             @Nonnull final Configuration configuration) {
         assert injector != null;
         assert configuration != null;
@@ -62,10 +68,15 @@ public class StartupCheck {
          * Another good one is checking the expected character set (see below) and the JRE version.
          */
 
-        // Check if we are using the correct JDK: we've tested it with 6, 7 and 8 only.
+        // Check if we are using the correct JDK: the service is compiled for 8 and runs on later versions.
         final String javaVersion = System.getProperty("java.version");
-        check(javaVersion.startsWith("1.6.") || javaVersion.startsWith("1.7.") || javaVersion.startsWith("1.8."),
-                "The system requires JRE 1.6.x, 1.7.x or 1.8.x (found JRE " + javaVersion + ").");
+        check(getJavaMajorVersion(javaVersion) >= MINIMUM_JAVA_VERSION,
+                "The system requires JRE " + MINIMUM_JAVA_VERSION + " or later (found JRE " + javaVersion + ").");
+
+        // Check if the execution mode is supported by the JRE.
+        check((configurationServiceProperties.getExecutionMode() != ExecutionMode.VIRTUAL) ||
+                        RequestExecutor.isVirtualThreadsSupported(),
+                "Execution mode 'virtual' requires a JRE with virtual threads (found JRE " + javaVersion + ").");
 
         // Check encoding. The default character encoding for JSON is UTF8. UTF16 and UTF32 are also supported.
         // This is to make sure that byte conversions that rely on default encoding do not cause unexpected behaviour.
@@ -76,6 +87,10 @@ public class StartupCheck {
         // Check if the configuration tree was properly read.
         check(configuration.isStartupConfigurationOK(), "Error reading the default configuration: " +
                 configuration.getStartupConfigurationURI());
+        if (configuration.isLastKnownGood()) {
+            LOG.warn("Startup: Using last-known-good snapshot until the startup configuration is loaded, uri={}",
+                    configuration.getStartupConfigurationURI());
+        }
 
         // All OK.
         LOG.info("Startup: System started succesfully, POM version={}", mavenProperties.getPomVersion());
@@ -85,6 +100,21 @@ public class StartupCheck {
         // Empty.
     }
 
+    /**
+     * Return the major version of a JRE, from its "java.version" property, such as "1.8.0_292" or "21.0.1".
+     *
+     * @param javaVersion Java version.
+     * @return Major version, or 0 if it cannot be determined.
+     */
+    static int getJavaMajorVersion(@Nonnull final String javaVersion) {
+        final String version = javaVersion.startsWith("1.") ? javaVersion.substring(2) : javaVersion;
+        int end = 0;
+        while ((end < version.length()) && Character.isDigit(version.charAt(end))) {
+            ++end;
+        }
+        return (end == 0) ? 0 : Integer.parseInt(version.substring(0, end));
+    }
+
     @SuppressWarnings({"UseOfSystemOutOrSystemErr", "squid:S106"})
     private static void check(final boolean check, @Nonnull final String reason) {
         if (!check) {
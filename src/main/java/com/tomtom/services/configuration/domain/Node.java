@@ -22,6 +22,7 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.speedtools.checksums.SHA1Hash;
 import com.tomtom.speedtools.json.Json;
 import com.tomtom.speedtools.objects.Immutables;
 import com.tomtom.speedtools.time.UTCTime;
@@ -35,8 +36,15 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.google.common.base.Strings.nullToEmpty;
 
 /**
  * This class represents nodes in the search tree. A node has a name, a list of children nodes
@@ -47,6 +55,12 @@ import java.util.Set;
 @SuppressWarnings("squid:S2065")
 public final class Node {
 
+    /**
+     * Characters which have a special meaning in regular expressions. Match strings which do not
+     * contain any of these are literals.
+     */
+    private static final String REGEX_META_CHARACTERS = "\\^$.|?*+()[]{}";
+
     /**
      * Node match string. The match is null for the root node and non-null,
      * non-empty for other nodes.
@@ -83,13 +97,95 @@ public final class Node {
     private final List<String> levels;
 
     /**
-     * The parentNode property holds a convenient link to the parent of this node.
-     * It's null for the root node only. This link may be used to traverse the tree
-     * all the way up to the root, for example, to find the applicable 'modified' time.
+     * Order of node level names of the root of the tree this node belongs to. Nodes do not keep a link
+     * to their parent: everything they need from their parents is computed when the tree is built, so
+     * unchanged subtrees can be shared between trees.
+     */
+    @JsonIgnore
+    @Nullable
+    private final transient List<String> rootLevels;
+
+    /**
+     * Index of the level of this node in the list of level names of the root node. This is -1 for
+     * the root node (and for nodes without a parent).
+     */
+    @JsonIgnore
+    private final transient int levelIndex;
+
+    /**
+     * The full path of match strings from the root to this node, formatted as a query, like
+     * "level1=match1&level2=match2". This is the empty string for the root node (and for nodes
+     * without a parent). It is computed once, when the tree is built.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final transient String matched;
+
+    /**
+     * The applicable 'modified' time of this node: its own 'modified' time, or the one of its closest
+     * parent that has one. Null if none exists. It is computed once, when the tree is built.
      */
     @JsonIgnore
     @Nullable
-    private final transient Node parentNode;
+    private final transient DateTime effectiveModified;
+
+    /**
+     * Hash of the content of this node, including all of its children. Nodes with the same content
+     * have the same hash, so the hash can be used to create an ETag for the node.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final transient String contentHash;
+
+    /**
+     * Hash of the search result for this node, which consists of its parameters and matched path.
+     * The hash can be used to create an ETag for search results.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final transient String resultHash;
+
+    /**
+     * Precompiled, case-insensitive regular expression of the match string. This is null
+     * for the root node only. The pattern is compiled once, when the tree is built, rather
+     * than for every search.
+     */
+    @JsonIgnore
+    @Nullable
+    private final transient Pattern pattern;
+
+    /**
+     * True if the match string contains no regular expression meta-characters. For such nodes
+     * a regular expression match is the same as a literal match.
+     */
+    @JsonIgnore
+    private final transient boolean literal;
+
+    /**
+     * Index of all children nodes, by their case-folded match string, used to find an exact (literal)
+     * match in constant time. If multiple children fold to the same key, the first one is indexed.
+     * Null if there are no children.
+     */
+    @JsonIgnore
+    @Nullable
+    private final transient Map<String, Node> literalNodes;
+
+    /**
+     * Children nodes with a non-literal match string, in their original order. These are only checked
+     * if no literal match was found. Null if there are no such children.
+     */
+    @JsonIgnore
+    @Nullable
+    private final transient List<Node> regexNodes;
+
+    /**
+     * The regular expressions of all non-literal children, combined into a single alternation, so the first
+     * matching child is found in a single match operation. Null if there are less than 2 such children or if
+     * their regular expressions cannot be combined, in which case they are matched one by one.
+     */
+    @JsonIgnore
+    @Nullable
+    private final transient RegexAlternation regexAlternation;
 
     public Node(
             @Nullable final String match,
@@ -103,7 +199,17 @@ public final class Node {
         this.parameters = ((parameters == null) || parameters.isEmpty()) ? null : Immutables.setOf(parameters);
         this.modified = modified;
         this.levels = ((levels == null) || levels.isEmpty()) ? null : Immutables.listOf(levels);
-        this.parentNode = parentNode;
+        this.rootLevels = (parentNode == null) ? this.levels : parentNode.rootLevels;
+        this.levelIndex = (parentNode == null) ? -1 : (parentNode.levelIndex + 1);
+        this.matched = createMatched(parentNode, levelIndex, match);
+        this.effectiveModified = ((modified != null) || (parentNode == null)) ? modified : parentNode.effectiveModified;
+        this.pattern = (match == null) ? null : createCaseInsensitivePattern(match);
+        this.literal = (match != null) && isLiteral(match);
+        this.literalNodes = createLiteralNodes(this.nodes);
+        this.regexNodes = createRegexNodes(this.nodes);
+        this.regexAlternation = RegexAlternation.create(this.regexNodes);
+        this.contentHash = createContentHash(match, this.nodes, this.parameters, modified, this.levels);
+        this.resultHash = createResultHash(this.parameters, matched);
     }
 
     public Node(@Nonnull final String match) {
@@ -117,14 +223,30 @@ public final class Node {
      * @param parentNode Parent of node to create, null for the root node.
      */
     public Node(@Nonnull final NodeDTO nodeDTO, @Nullable final Node parentNode) {
+        this(nodeDTO, parentNode, null);
+    }
+
+    /**
+     * Create a Node object from a NodeDTO, reusing the nodes of a previous tree where possible.
+     *
+     * @param nodeDTO    Node to convert.
+     * @param parentNode Parent of node to create, null for the root node.
+     * @param nodeCache  Nodes created for NodeDTOs of a previous tree, null to create all nodes.
+     */
+    public Node(@Nonnull final NodeDTO nodeDTO, @Nullable final Node parentNode, @Nullable final NodeCache nodeCache) {
 
         // Set name. Replace null-name (always root) with root name.
         this.match = nodeDTO.getMatch();
 
-        // Set parameters, create an immutable list.
+        // Precompile the pattern used to match search terms.
+        this.pattern = (match == null) ? null : createCaseInsensitivePattern(match);
+        this.literal = (match != null) && isLiteral(match);
+
+        // Set parameters, create an immutable list. Share equal parameters if a node cache is given.
         final Collection<Parameter> parametersOfNode = new ArrayList<>();
         if (nodeDTO.getParameters() != null) {
-            nodeDTO.getParameters().stream().forEach(parameterDTO -> parametersOfNode.add(new Parameter(parameterDTO)));
+            nodeDTO.getParameters().stream().forEach(parameterDTO -> parametersOfNode.add(
+                    (nodeCache == null) ? new Parameter(parameterDTO) : nodeCache.getParameter(parameterDTO)));
         }
         this.parameters = parametersOfNode.isEmpty() ? null : Immutables.setOf(parametersOfNode);
 
@@ -134,18 +256,40 @@ public final class Node {
         // Set ordering of level names.
         this.levels = (nodeDTO.getLevels() == null) ? null : Immutables.listOf(nodeDTO.getLevels());
 
-        // Set the parent node.
-        this.parentNode = parentNode;
+        // Set the level names of the root.
+        this.rootLevels = (parentNode == null) ? this.levels : parentNode.rootLevels;
+
+        // Set the level and the path to this node. This must be done before the children are created.
+        this.levelIndex = (parentNode == null) ? -1 : (parentNode.levelIndex + 1);
+        this.matched = createMatched(parentNode, levelIndex, match);
+        this.effectiveModified = ((modified != null) || (parentNode == null)) ? modified : parentNode.effectiveModified;
 
         // Set nodes, create an immutable list.
         final Collection<Node> childNodes = new ArrayList<>();
         if (nodeDTO.getNodes() != null) {
             for (final NodeDTO childNodeDTO : nodeDTO.getNodes()) {
-                final Node childNode = new Node(childNodeDTO, this);
+
+                // Reuse the node of a previous tree, if it was created for the same NodeDTO in the same place.
+                Node childNode = (nodeCache == null) ? null : nodeCache.find(childNodeDTO, this);
+                if (childNode == null) {
+                    childNode = new Node(childNodeDTO, this, nodeCache);
+                }
+                if (nodeCache != null) {
+                    nodeCache.add(childNodeDTO, childNode);
+                }
                 childNodes.add(childNode);
             }
         }
         this.nodes = childNodes.isEmpty() ? null : Immutables.setOf(childNodes);
+
+        // Index the children for searching.
+        this.literalNodes = createLiteralNodes(this.nodes);
+        this.regexNodes = createRegexNodes(this.nodes);
+        this.regexAlternation = RegexAlternation.create(this.regexNodes);
+
+        // Compute the hashes of the node, now the children are known.
+        this.contentHash = createContentHash(match, nodes, parameters, modified, levels);
+        this.resultHash = createResultHash(parameters, matched);
     }
 
     @Nullable
@@ -174,8 +318,72 @@ public final class Node {
     }
 
     @Nullable
-    public Node getParentNode() {
-        return parentNode;
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    public int getLevelIndex() {
+        return levelIndex;
+    }
+
+    @Nonnull
+    public String getMatched() {
+        return matched;
+    }
+
+    @Nonnull
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    @Nonnull
+    public String getResultHash() {
+        return resultHash;
+    }
+
+    public boolean isLiteral() {
+        return literal;
+    }
+
+    @Nullable
+    public List<Node> getRegexNodes() {
+        return regexNodes;
+    }
+
+    /**
+     * Find the first child node which matches a search term literally (case-insensitive).
+     *
+     * @param searchTerm Search term.
+     * @return Child node, or null if no child matches the search term literally.
+     */
+    @Nullable
+    public Node findLiteralNode(@Nonnull final String searchTerm) {
+        return (literalNodes == null) ? null : literalNodes.get(foldCase(searchTerm));
+    }
+
+    /**
+     * Find the first non-literal child node of which the regular expression matches a search term
+     * (case-insensitive). The children are tried in their original order.
+     *
+     * @param searchTerm Search term.
+     * @return Child node, or null if no child matches the search term.
+     */
+    @Nullable
+    public Node findRegexNode(@Nonnull final String searchTerm) {
+        if (regexNodes == null) {
+            return null;
+        }
+        if (regexAlternation != null) {
+            final int index = regexAlternation.indexOfFirstMatch(searchTerm);
+            return (index < 0) ? null : regexNodes.get(index);
+        }
+        for (final Node regexNode : regexNodes) {
+            assert regexNode.pattern != null;
+            if (regexNode.pattern.matcher(searchTerm).matches()) {
+                return regexNode;
+            }
+        }
+        return null;
     }
 
     @Override
@@ -184,23 +392,213 @@ public final class Node {
         return Json.toJson(this);
     }
 
+    /**
+     * Return whether this node can be used as a child of a parent node, in another tree than the one it
+     * was created for. This is the case if it has the same level, path and 'modified' time as it would
+     * have if it were created as a child of the parent.
+     *
+     * @param parentNode Parent node.
+     * @return True if this node can be used as a child of the parent node.
+     */
+    boolean fitsUnder(@Nonnull final Node parentNode) {
+        return (levelIndex == (parentNode.levelIndex + 1)) &&
+                Objects.equals(rootLevels, parentNode.rootLevels) &&
+                matched.equals(createMatched(parentNode, levelIndex, match)) &&
+                Objects.equals(effectiveModified, (modified != null) ? modified : parentNode.effectiveModified);
+    }
+
     /**
      * Convenience method to retrieve the applicable 'modified' time for this node.
-     * Search all the way up to the root until we find one.
+     * This is the 'modified' time of the node itself, or of its closest parent that has one.
+     * It was computed when the tree was built, so this method does not need to traverse the tree.
      *
      * @return Applicable 'modified' time, or null if none exists.
      */
     @Nullable
     public DateTime searchModifiedUpToRoot() {
-        Node other = this;
-        while (true) {
-            if (other.modified != null) {
-                return other.modified;
-            } else if (other.parentNode != null) {
-                other = other.parentNode;
-            } else {
-                return null;
+        return effectiveModified;
+    }
+
+    /**
+     * Return whether a match string is a literal, i.e. contains no regular expression meta-characters.
+     *
+     * @param match Match string.
+     * @return True if the match string only matches itself.
+     */
+    public static boolean isLiteral(@Nonnull final String match) {
+        for (int i = 0; i < match.length(); ++i) {
+            if (REGEX_META_CHARACTERS.indexOf(match.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fold the case of a string, such that two strings fold to the same value if and only if
+     * they match case-insensitively. Note that case-insensitive regular expressions only fold
+     * US-ASCII characters, so this method does the same.
+     *
+     * @param value String to fold.
+     * @return Case-folded string.
+     */
+    @Nonnull
+    public static String foldCase(@Nonnull final String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            final char ch = value.charAt(i);
+            if ((ch >= 'A') && (ch <= 'Z')) {
+
+                // Only create a new string if there's something to fold.
+                final char[] chars = value.toCharArray();
+                for (int j = i; j < chars.length; ++j) {
+                    if ((chars[j] >= 'A') && (chars[j] <= 'Z')) {
+                        chars[j] = (char) (chars[j] + ('a' - 'A'));
+                    }
+                }
+                return new String(chars);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Create the matched path of a node, which is the matched path of its parent, extended with
+     * the level name and match string of the node.
+     *
+     * @param parentNode Parent node, null for the root node.
+     * @param levelIndex Level index of the node.
+     * @param match      Match string of the node.
+     * @return Matched path, empty for the root node.
+     */
+    @Nonnull
+    private static String createMatched(
+            @Nullable final Node parentNode,
+            final int levelIndex,
+            @Nullable final String match) {
+        if (parentNode == null) {
+            return "";
+        }
+
+        // Find the level names, which are specified in the root node.
+        final List<String> rootLevels = parentNode.rootLevels;
+        final String levelName = ((rootLevels != null) && (levelIndex < rootLevels.size())) ?
+                rootLevels.get(levelIndex) : "";
+        return parentNode.matched + (parentNode.matched.isEmpty() ? "" : "&") + levelName + '=' + nullToEmpty(match);
+    }
+
+    /**
+     * Create the hash of the content of a node. The hash covers everything that is output for
+     * the node, including the hashes of all of its children.
+     *
+     * @param match      Match string.
+     * @param nodes      Children nodes.
+     * @param parameters Parameters.
+     * @param modified   Modified time.
+     * @param levels     Level names.
+     * @return Hash string.
+     */
+    @Nonnull
+    private static String createContentHash(
+            @Nullable final String match,
+            @Nullable final Collection<Node> nodes,
+            @Nullable final Collection<Parameter> parameters,
+            @Nullable final DateTime modified,
+            @Nullable final List<String> levels) {
+        final StringBuilder sb = new StringBuilder();
+        appendHashField(sb, match);
+        appendHashField(sb, (modified == null) ? null : ISODateTimeFormat.dateTimeNoMillis().print(modified));
+        sb.append(((levels == null) ? 0 : levels.size())).append('L');
+        if (levels != null) {
+            levels.forEach(level -> appendHashField(sb, level));
+        }
+        appendHashParameters(sb, parameters);
+        sb.append(((nodes == null) ? 0 : nodes.size())).append('N');
+        if (nodes != null) {
+            nodes.forEach(node -> sb.append(node.contentHash));
+        }
+        return SHA1Hash.hash(sb.toString()).toString();
+    }
+
+    /**
+     * Create the hash of the search result of a node.
+     *
+     * @param parameters Parameters.
+     * @param matched    Matched path.
+     * @return Hash string.
+     */
+    @Nonnull
+    private static String createResultHash(
+            @Nullable final Collection<Parameter> parameters,
+            @Nonnull final String matched) {
+        final StringBuilder sb = new StringBuilder();
+        appendHashParameters(sb, parameters);
+        appendHashField(sb, matched);
+        return SHA1Hash.hash(sb.toString()).toString();
+    }
+
+    private static void appendHashParameters(
+            @Nonnull final StringBuilder sb,
+            @Nullable final Collection<Parameter> parameters) {
+        sb.append(((parameters == null) ? 0 : parameters.size())).append('P');
+        if (parameters != null) {
+            for (final Parameter parameter : parameters) {
+                appendHashField(sb, parameter.getKey());
+                appendHashField(sb, parameter.getValue());
+            }
+        }
+    }
+
+    /**
+     * Append a field to the input of a hash, prefixed with its length, so the concatenation of
+     * fields is unambiguous.
+     *
+     * @param sb    Input of hash.
+     * @param value Field value, may be null.
+     */
+    private static void appendHashField(@Nonnull final StringBuilder sb, @Nullable final String value) {
+        if (value == null) {
+            sb.append('-');
+        } else {
+            sb.append(value.length()).append(':').append(value);
+        }
+    }
+
+    @Nullable
+    private static Map<String, Node> createLiteralNodes(@Nullable final Collection<Node> nodes) {
+        if (nodes == null) {
+            return null;
+        }
+        final Map<String, Node> literalNodes = new HashMap<>();
+        for (final Node node : nodes) {
+            assert node.match != null;
+            literalNodes.putIfAbsent(foldCase(node.match), node);
+        }
+        return Immutables.mapOf(literalNodes);
+    }
+
+    @Nullable
+    private static List<Node> createRegexNodes(@Nullable final Collection<Node> nodes) {
+        if (nodes == null) {
+            return null;
+        }
+        final List<Node> regexNodes = new ArrayList<>();
+        for (final Node node : nodes) {
+            if (!node.literal) {
+                regexNodes.add(node);
             }
         }
+        return regexNodes.isEmpty() ? null : Immutables.listOf(regexNodes);
+    }
+
+    /**
+     * Create a regex pattern which matches strings case-insensitive.
+     *
+     * @param regex Regular expression to make case-insensitive.
+     * @return Case-insensitive pattern.
+     * @throws PatternSyntaxException If the regular expression is invalid.
+     */
+    @Nonnull
+    public static Pattern createCaseInsensitivePattern(@Nonnull final String regex) {
+        return Pattern.compile("(?i:" + regex + ')');
     }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class keeps the nodes which were created for a set of NodeDTOs, so a new tree which contains
+ * the same NodeDTO objects can share those nodes (and all of their children) with the previous tree,
+ * rather than creating them again. NodeDTOs are compared by identity: a NodeDTO which is reused as a
+ * whole, such as the expanded contents of an unchanged include file, is never modified.
+ * <p>
+ * A node is only shared if it fits in the new tree: see {@link Node#fitsUnder(Node)}. A NodeDTO which
+ * is used in several places of a tree has a node for each of those places.
+ * <p>
+ * The cache also keeps the parameters of the tree by key and value, so equal parameters, such as the
+ * parameters of an include file which is included in many places, are a single object.
+ */
+@NotThreadSafe
+public final class NodeCache {
+
+    /**
+     * Nodes created for the NodeDTOs of the previous tree.
+     */
+    @Nonnull
+    private final Map<NodeDTO, List<Node>> previousNodes;
+
+    /**
+     * Nodes created for the NodeDTOs of this tree.
+     */
+    @Nonnull
+    private final Map<NodeDTO, List<Node>> nodes = new IdentityHashMap<>();
+
+    /**
+     * NodeDTOs of which the nodes are kept for the next tree.
+     */
+    @Nonnull
+    private final Set<NodeDTO> cachedNodeDTOs = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Parameters of the previous tree, by key and value.
+     */
+    @Nonnull
+    private final Map<String, Parameter> previousParameters;
+
+    /**
+     * Parameters of this tree, by key and value.
+     */
+    @Nonnull
+    private final Map<String, Parameter> parameters = new HashMap<>();
+
+    private int nrReusedNodes = 0;
+
+    /**
+     * Create a node cache for a new tree.
+     *
+     * @param previous       Node cache of the previous tree, null if there was none.
+     * @param cachedNodeDTOs NodeDTOs of which the nodes should be kept for the next tree. Nodes of
+     *                       other NodeDTOs are not kept, as the NodeDTOs are not reused.
+     */
+    public NodeCache(@Nullable final NodeCache previous, @Nonnull final Collection<NodeDTO> cachedNodeDTOs) {
+        this.previousNodes = (previous == null) ? Collections.emptyMap() : previous.nodes;
+        this.previousParameters = (previous == null) ? Collections.emptyMap() : previous.parameters;
+        this.cachedNodeDTOs.addAll(cachedNodeDTOs);
+    }
+
+    /**
+     * Return the number of nodes which were shared with the previous tree. Only the top node of a
+     * shared subtree is counted.
+     *
+     * @return Number of shared nodes.
+     */
+    public int getNrReusedNodes() {
+        return nrReusedNodes;
+    }
+
+    /**
+     * Find a node of the previous tree, which was created for a NodeDTO and fits under a parent.
+     *
+     * @param nodeDTO    NodeDTO.
+     * @param parentNode Parent of the node in the new tree.
+     * @return Node, or null if no such node exists.
+     */
+    @Nullable
+    Node find(@Nonnull final NodeDTO nodeDTO, @Nonnull final Node parentNode) {
+        final List<Node> candidates = previousNodes.get(nodeDTO);
+        if (candidates != null) {
+            for (final Node candidate : candidates) {
+                if (candidate.fitsUnder(parentNode)) {
+                    ++nrReusedNodes;
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the parameter for a ParameterDTO. Equal parameters of this tree and the previous tree are
+     * the same object.
+     *
+     * @param parameterDTO ParameterDTO.
+     * @return Parameter.
+     */
+    @Nonnull
+    Parameter getParameter(@Nonnull final ParameterDTO parameterDTO) {
+        final String key = parameterDTO.getKey();
+        final String value = parameterDTO.getValue();
+        final String parameterKey = ((key == null) ? 0 : key.length()) + ":" + key + value;
+        return parameters.computeIfAbsent(parameterKey, k -> {
+            final Parameter previousParameter = previousParameters.get(k);
+            return (previousParameter != null) ? previousParameter : new Parameter(parameterDTO);
+        });
+    }
+
+    /**
+     * Register the node which is used for a NodeDTO in the new tree.
+     *
+     * @param nodeDTO NodeDTO.
+     * @param node    Node.
+     */
+    void add(@Nonnull final NodeDTO nodeDTO, @Nonnull final Node node) {
+        if (cachedNodeDTOs.contains(nodeDTO)) {
+            nodes.computeIfAbsent(nodeDTO, key -> new ArrayList<>(1)).add(node);
+        }
+    }
+}
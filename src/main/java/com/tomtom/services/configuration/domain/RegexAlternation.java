@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * This class combines the regular expressions of a list of nodes into a single alternation,
+ * which is matched against a search term in one go, rather than trying every regular expression
+ * in turn. The alternatives are tried in the order of the nodes, so the first matching node wins,
+ * just like it would when matching the nodes one by one.
+ * <p>
+ * Every regular expression is wrapped in a capturing group, so the matching node can be found
+ * from the group that participated in the match. Regular expressions which depend on their own
+ * group numbering (back references) or group names cannot be combined.
+ */
+@Immutable
+final class RegexAlternation {
+
+    /**
+     * Combined, case-insensitive alternation of all regular expressions.
+     */
+    @Nonnull
+    private final Pattern pattern;
+
+    /**
+     * Capturing group index of every alternative in the combined pattern.
+     */
+    @Nonnull
+    private final int[] groups;
+
+    private RegexAlternation(@Nonnull final Pattern pattern, @Nonnull final int[] groups) {
+        this.pattern = pattern;
+        this.groups = groups;
+    }
+
+    /**
+     * Create an alternation for a list of nodes.
+     *
+     * @param nodes Nodes to combine, in order of precedence.
+     * @return Alternation, or null if there are less than 2 nodes or their match strings cannot be combined.
+     */
+    @Nullable
+    static RegexAlternation create(@Nullable final List<Node> nodes) {
+        if ((nodes == null) || (nodes.size() < 2)) {
+            return null;
+        }
+        final StringBuilder regex = new StringBuilder();
+        final int[] groups = new int[nodes.size()];
+        int group = 1;
+        for (int i = 0; i < nodes.size(); ++i) {
+            final String match = nodes.get(i).getMatch();
+            if ((match == null) || !isCombinable(match)) {
+                return null;
+            }
+            final int nrOfGroups;
+            try {
+                nrOfGroups = Pattern.compile(match).matcher("").groupCount();
+            } catch (final PatternSyntaxException ignored) {
+                return null;
+            }
+            regex.append((i == 0) ? "" : "|").append('(').append(match).append(')');
+            groups[i] = group;
+            group = group + 1 + nrOfGroups;
+        }
+        return new RegexAlternation(Node.createCaseInsensitivePattern(regex.toString()), groups);
+    }
+
+    /**
+     * Return the index of the first alternative that matches the search term.
+     *
+     * @param searchTerm Search term.
+     * @return Index of the node that matched, or -1 if none matched.
+     */
+    int indexOfFirstMatch(@Nonnull final String searchTerm) {
+        final Matcher matcher = pattern.matcher(searchTerm);
+        if (matcher.matches()) {
+            for (int i = 0; i < groups.length; ++i) {
+                if (matcher.start(groups[i]) >= 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return whether a regular expression can be combined with others, i.e. it does not refer
+     * to groups by number or by name.
+     *
+     * @param regex Regular expression.
+     * @return True if the regular expression can be wrapped in an alternation.
+     */
+    private static boolean isCombinable(@Nonnull final String regex) {
+        for (int i = 0; i < (regex.length() - 1); ++i) {
+            final char ch = regex.charAt(i);
+            final char next = regex.charAt(i + 1);
+            if (ch == '\\') {
+
+                // Back references by number or name.
+                if (Character.isDigit(next) || (next == 'k')) {
+                    return false;
+                }
+
+                // Skip escaped character.
+                ++i;
+            } else if ((ch == '(') && (next == '?') && ((i + 3) < regex.length()) &&
+                    (regex.charAt(i + 2) == '<') && Character.isLetter(regex.charAt(i + 3))) {
+
+                // Named group, which may clash with the same name in a different regular expression.
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tomtom.speedtools.apivalidation.ApiDTO;
+
+import javax.annotation.Nonnull;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * This class provides the DTO for the 'cache' call. The cache call returns the size and the
+ * hit, miss and eviction counters of the search result cache, which can be used to size the cache.
+ * The counters are reset when a new configuration is used.
+ */
+@SuppressWarnings({"EqualsWhichDoesntCheckParameterClass", "squid:S2160"})
+@JsonInclude(Include.ALWAYS)
+@XmlRootElement(name = "resultCache")
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class ResultCacheDTO extends ApiDTO {
+
+    /**
+     * Maximum number of cached search results, 0 if the cache is disabled.
+     */
+    @JsonProperty("maximumSize")
+    @XmlElement(name = "maximumSize")
+    @Nonnull
+    private Long maximumSize;
+
+    /**
+     * Approximate number of cached search results.
+     */
+    @JsonProperty("size")
+    @XmlElement(name = "size")
+    @Nonnull
+    private Long size;
+
+    /**
+     * Number of searches that were found in the cache.
+     */
+    @JsonProperty("hitCount")
+    @XmlElement(name = "hitCount")
+    @Nonnull
+    private Long hitCount;
+
+    /**
+     * Number of searches that were not found in the cache.
+     */
+    @JsonProperty("missCount")
+    @XmlElement(name = "missCount")
+    @Nonnull
+    private Long missCount;
+
+    /**
+     * Number of search results that were evicted from the cache.
+     */
+    @JsonProperty("evictionCount")
+    @XmlElement(name = "evictionCount")
+    @Nonnull
+    private Long evictionCount;
+
+    public ResultCacheDTO(
+            final long maximumSize,
+            final long size,
+            final long hitCount,
+            final long missCount,
+            final long evictionCount) {
+        super();
+        setMaximumSize(maximumSize);
+        setSize(size);
+        setHitCount(hitCount);
+        setMissCount(missCount);
+        setEvictionCount(evictionCount);
+    }
+
+    @SuppressWarnings({"UnusedDeclaration", "squid:MissingDeprecatedCheck", "squid:S1133", "NullableProblems"})
+    @Deprecated
+    ResultCacheDTO() {
+        // Default constructor required by JAX-B.
+        super();
+    }
+
+    /**
+     * For an explanation of validate(), see {@link NodeDTO}.
+     */
+    @Override
+    public void validate() {
+        validator().start();
+        validator().checkLong(true, "maximumSize", maximumSize, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "size", size, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "hitCount", hitCount, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "missCount", missCount, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "evictionCount", evictionCount, 0, Long.MAX_VALUE);
+        validator().done();
+    }
+
+    @Nonnull
+    public Long getMaximumSize() {
+        beforeGet();
+        return maximumSize;
+    }
+
+    public void setMaximumSize(@Nonnull final Long maximumSize) {
+        beforeSet();
+        this.maximumSize = maximumSize;
+    }
+
+    @Nonnull
+    public Long getSize() {
+        beforeGet();
+        return size;
+    }
+
+    public void setSize(@Nonnull final Long size) {
+        beforeSet();
+        this.size = size;
+    }
+
+    @Nonnull
+    public Long getHitCount() {
+        beforeGet();
+        return hitCount;
+    }
+
+    public void setHitCount(@Nonnull final Long hitCount) {
+        beforeSet();
+        this.hitCount = hitCount;
+    }
+
+    @Nonnull
+    public Long getMissCount() {
+        beforeGet();
+        return missCount;
+    }
+
+    public void setMissCount(@Nonnull final Long missCount) {
+        beforeSet();
+        this.missCount = missCount;
+    }
+
+    @Nonnull
+    public Long getEvictionCount() {
+        beforeGet();
+        return evictionCount;
+    }
+
+    public void setEvictionCount(@Nonnull final Long evictionCount) {
+        beforeSet();
+        this.evictionCount = evictionCount;
+    }
+}
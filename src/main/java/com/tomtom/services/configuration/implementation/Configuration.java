@@ -16,14 +16,14 @@
 
 package com.tomtom.services.configuration.implementation;
 
-import com.fasterxml.jackson.core.JsonParser.Feature;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.JavaType;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.TypeFactory;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.google.common.base.Splitter;
 import com.tomtom.services.configuration.ConfigurationServiceProperties;
 import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.domain.NodeCache;
 import com.tomtom.services.configuration.dto.NodeDTO;
 import com.tomtom.services.configuration.dto.ParameterDTO;
 import com.tomtom.services.configuration.dto.ParameterListDTO;
@@ -32,33 +32,33 @@ import com.tomtom.services.configuration.dto.SearchResultsDTO;
 import com.tomtom.services.configuration.dto.SupportsInclude;
 import com.tomtom.speedtools.apivalidation.exceptions.ApiException;
 import com.tomtom.speedtools.objects.Immutables;
-import com.tomtom.speedtools.objects.Tuple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import javax.ws.rs.core.Response.Status;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.PatternSyntaxException;
 
 import static com.google.common.base.Strings.nullToEmpty;
 import static com.tomtom.services.configuration.TreeResource.*;
 import static com.tomtom.speedtools.objects.Objects.notNullOr;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * This class implements the search tree, which consists of nodes and leafs. Every node can have
@@ -69,6 +69,7 @@ import static com.tomtom.speedtools.objects.Objects.notNullOr;
  * which is absent.
  */
 @SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
+@JsonPropertyOrder({"initialConfigurationOK", "root", "configurationServiceProperties"})
 public class Configuration {
     private static final Logger LOG = LoggerFactory.getLogger(Configuration.class);
 
@@ -76,10 +77,50 @@ public class Configuration {
 
 
     /**
-     * The root node of the tree.
+     * The current snapshot of the configuration tree. A reload replaces the snapshot as a whole,
+     * so readers always see a consistent tree and never need to lock.
      */
+    @JsonIgnore
     @Nonnull
-    private final Node root;
+    private volatile transient ConfigurationSnapshot snapshot;
+
+    /**
+     * Lock to make sure only one reload runs at a time. Readers never use it.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final transient Object reloadLock = new Object();
+
+    /**
+     * Documents read from 'http:' and 'https:' URIs, to reload them with conditional requests.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final transient HttpSourceCache httpSourceCache = new HttpSourceCache();
+
+    /**
+     * Include graph of the current tree, used to rebuild only the parts of the tree which changed.
+     * Only used when the tree is (re)loaded, under the reload lock. It holds the expanded contents
+     * of all includes, so it is only kept if the configuration is reloaded periodically or when its
+     * files change, see {@link #isIncrementalReload()}; otherwise it is null.
+     */
+    @JsonIgnore
+    @Nullable
+    private transient IncludeGraph includeGraph;
+
+    /**
+     * Listeners which are called after a reload replaced the tree.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final transient List<Runnable> reloadListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * True while the tree is the last-known-good snapshot read at startup, until the startup configuration
+     * was loaded.
+     */
+    @JsonIgnore
+    private volatile transient boolean lastKnownGood;
 
     /**
      * The URL to read the configuration tree from.
@@ -91,52 +132,176 @@ public class Configuration {
     public Configuration(@Nonnull final ConfigurationServiceProperties configurationServiceProperties)
             throws IncorrectConfigurationException {
 
-        // Call the helper constructor and read the configuration as one large string.
-        this(configurationServiceProperties,
-                readConfiguration(configurationServiceProperties.getStartupConfigurationURI()));
+        // Call the helper constructor, which reads the configuration from the URI.
+        this(configurationServiceProperties, null, configurationServiceProperties.getStartupConfigurationURI());
     }
 
     /**
      * Package private. Constructor used for testing the class. Allows you to inject a string configuration directly.
-     * This constructor is also used by the "real" external constructor to pass the configuration file contents.
      *
      * @param configurationServiceProperties Configuration.
      * @param overrideStartupConfiguration   String configuration which overrides the configuration URL.
-     *                                       Note that the regular constructor uses this as well.
      */
     Configuration(
             @Nonnull final ConfigurationServiceProperties configurationServiceProperties,
             @Nullable final String overrideStartupConfiguration)
             throws IncorrectConfigurationException {
+        this(configurationServiceProperties, overrideStartupConfiguration, null);
+    }
+
+    private Configuration(
+            @Nonnull final ConfigurationServiceProperties configurationServiceProperties,
+            @Nullable final String overrideStartupConfiguration,
+            @Nullable final String startupConfigurationURI)
+            throws IncorrectConfigurationException {
 
         // Create an empty root.
         NodeDTO realRoot = new NodeDTO(null, null, null, null, null, null, null);
         boolean realInitialConfigurationOK = false;
         this.configurationServiceProperties = configurationServiceProperties;
 
-        // If the configuration is specified as a parameter (in tests), use that one.
-        if (overrideStartupConfiguration != null) {
+        // Keep track of all URIs the configuration was read from.
+        final SourceReader reader = new SourceReader(httpSourceCache);
+
+        // Start with the last-known-good snapshot, if there is one, rather than wait for a remote configuration.
+        final Node lastKnownGoodRoot = (startupConfigurationURI != null) && HttpSourceCache.isHttp(startupConfigurationURI) ?
+                readLastKnownGood(configurationServiceProperties) : null;
+        if (lastKnownGoodRoot != null) {
+            realInitialConfigurationOK = true;
+        } else {
             try {
 
-                // Read the tree and validate.
-                final NodeDTO rootOfInclude = getRootOfInclude(overrideStartupConfiguration);
+                // If the configuration is specified as a parameter (in tests), use that one.
+                final ByteBuffer startupConfiguration = (startupConfigurationURI != null) ?
+                        reader.read(startupConfigurationURI) :
+                        ((overrideStartupConfiguration == null) ? null : ByteBuffer.wrap(overrideStartupConfiguration.getBytes(UTF_8)));
+                if (startupConfiguration != null) {
+                    realRoot = parseConfiguration(startupConfiguration, reader);
+                    LOG.info("Tree: Startup configuration read OK, startupConfiguration={}", realRoot);
+                    realInitialConfigurationOK = true;
+                }
+            } finally {
+                reader.close();
+            }
+        }
 
-                // Validate root and all siblings.
-                rootOfInclude.validate();
-                LOG.info("Tree: Startup configuration read OK, startupConfiguration={}", rootOfInclude);
+        // Convert the DTO tree to a domain tree, unless the last-known-good tree was built already.
+        final boolean incrementalReload = isIncrementalReload();
+        final NodeCache nodeCache = new NodeCache(null,
+                incrementalReload ? reader.getIncludedNodeDTOs() : Collections.emptyList());
+        final Node root = (lastKnownGoodRoot != null) ? lastKnownGoodRoot : new Node(realRoot, null, nodeCache);
+        this.snapshot = new ConfigurationSnapshot(root, reader.getSources(), configurationServiceProperties.getResultCacheSize());
+        this.includeGraph = incrementalReload ? reader.createIncludeGraph(nodeCache) : null;
+        httpSourceCache.publish(reader.getSources());
+        this.initialConfigurationOK = realInitialConfigurationOK;
+        this.lastKnownGood = (lastKnownGoodRoot != null);
+        if ((startupConfigurationURI != null) && !lastKnownGood) {
+            writeLastKnownGood();
+        }
+    }
 
-                // Use the root just read as the real root.
-                realRoot = rootOfInclude;
-                realInitialConfigurationOK = true;
-            } catch (final ApiException | IncorrectConfigurationException e) {
-                LOG.error("Tree: Startup configuration cannot be read: {}", e.getMessage());
-                throw new IncorrectConfigurationException(e.getMessage());
+    /**
+     * Reload the configuration from the start-up configuration URI. The new tree is read, validated and
+     * built completely, before it replaces the current tree in a single step. Requests in flight keep using
+     * the tree they started with. If the new configuration is incorrect, the current tree is kept.
+     * <p>
+     * If the new tree has the same contents as the current tree, the current tree is kept as well, so its
+     * caches remain valid. If the configuration was read from 'http:' or 'https:' URIs only, the documents
+     * are requested with conditional requests first: if none of them was modified, nothing is parsed.
+     * <p>
+     * If the configuration is reloaded periodically or when its files change, includes of which none of
+     * the documents changed are not read, parsed or expanded again, and the nodes created for them are
+     * shared with the current tree, so only the changed parts of the tree are rebuilt.
+     *
+     * @return True if the tree was replaced, false if the configuration did not change.
+     * @throws IncorrectConfigurationException If the configuration cannot be read or is incorrect.
+     */
+    public boolean reload() throws IncorrectConfigurationException {
+        synchronized (reloadLock) {
+            final String uri = configurationServiceProperties.getStartupConfigurationURI();
+            LOG.debug("reload: read configuration, uri={}", uri);
+            final Set<String> currentSources = snapshot.getSources();
+            if (currentSources.contains(uri) && httpSourceCache.isUnmodified(currentSources)) {
+                LOG.debug("reload: configuration not modified, uri={}", uri);
+                return false;
+            }
+            final SourceReader reader = new SourceReader(httpSourceCache, includeGraph);
+            final NodeDTO newRootDTO;
+            try {
+                newRootDTO = parseConfiguration(reader.read(uri), reader);
+            } finally {
+                reader.close();
+            }
+            final boolean incrementalReload = isIncrementalReload();
+            final NodeCache nodeCache = new NodeCache((includeGraph == null) ? null : includeGraph.getNodeCache(),
+                    incrementalReload ? reader.getIncludedNodeDTOs() : Collections.emptyList());
+            final Node newRoot = new Node(newRootDTO, null, nodeCache);
+            LOG.debug("reload: reused includes={}, shared includes={}, reused nodes={}",
+                    reader.getNrReusedIncludes(), reader.getNrSharedIncludes(), nodeCache.getNrReusedNodes());
+            includeGraph = incrementalReload ? reader.createIncludeGraph(nodeCache) : null;
+            if (newRoot.getContentHash().equals(snapshot.getRoot().getContentHash()) &&
+                    reader.getSources().equals(currentSources)) {
+                LOG.debug("reload: configuration not changed, uri={}", uri);
+
+                // The current tree is equal to the tree of the documents that were read.
+                httpSourceCache.publish(reader.getSources());
+                return false;
+            }
+            snapshot = new ConfigurationSnapshot(newRoot, reader.getSources(), configurationServiceProperties.getResultCacheSize());
+            httpSourceCache.publish(reader.getSources());
+            if (lastKnownGood) {
+                LOG.info("reload: startup configuration replaces last-known-good snapshot, uri={}", uri);
+                lastKnownGood = false;
             }
+            writeLastKnownGood();
+            LOG.info("reload: configuration reloaded, uri={}", uri);
+            notifyReloadListeners();
+            return true;
         }
+    }
 
-        // Convert the DTO tree to a domain tree.
-        this.root = new Node(realRoot, null);
-        this.initialConfigurationOK = realInitialConfigurationOK;
+    /**
+     * Return whether the include graph is kept for the next reload. This is only the case if the
+     * configuration is reloaded periodically or when its files change: reloads which are only
+     * requested now and then rebuild the whole tree, rather than keep the graph for the life of
+     * the service.
+     *
+     * @return True if reloads only rebuild the parts of the tree which changed.
+     */
+    private boolean isIncrementalReload() {
+        return (configurationServiceProperties.getReloadIntervalSecs() > 0) || configurationServiceProperties.isWatchFiles();
+    }
+
+    /**
+     * Add a listener which is called after every reload which replaced the tree, by the thread that
+     * reloaded it, under the reload lock. The new snapshot, and its sources, are available from
+     * {@link #getSnapshot()}.
+     *
+     * @param listener Listener.
+     */
+    public void addReloadListener(@Nonnull final Runnable listener) {
+        reloadListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added by {@link #addReloadListener(Runnable)}.
+     *
+     * @param listener Listener.
+     */
+    public void removeReloadListener(@Nonnull final Runnable listener) {
+        reloadListeners.remove(listener);
+    }
+
+    private void notifyReloadListeners() {
+        for (final Runnable listener : reloadListeners) {
+            try {
+                listener.run();
+            } catch (final RuntimeException e) {
+
+                // The tree was replaced already, so a failing listener does not fail the reload.
+                LOG.warn("notifyReloadListeners: listener failed, error={}", e.getMessage());
+            }
+        }
     }
 
     /**
@@ -149,6 +314,16 @@ public class Configuration {
         return initialConfigurationOK;
     }
 
+    /**
+     * Return whether the current tree is the last-known-good snapshot, which was read at startup instead
+     * of the startup configuration. It is replaced by the first successful reload.
+     *
+     * @return True if the startup configuration was not loaded yet.
+     */
+    public boolean isLastKnownGood() {
+        return lastKnownGood;
+    }
+
     /**
      * Return the URI of the start-up configuration.
      *
@@ -160,383 +335,161 @@ public class Configuration {
     }
 
     /**
-     * Get the root node.
+     * Get the current snapshot of the tree. Callers which use the tree more than once for a single
+     * request should get the snapshot once, so they use the same tree throughout the request.
+     *
+     * @return Current snapshot.
+     */
+    @Nonnull
+    public ConfigurationSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Get the root node of the current tree.
      *
      * @return Root node. Has an empty match strings.
      */
+    @JsonProperty("root")
     @Nonnull
     public Node getRoot() {
-        return root;
+        return snapshot.getRoot();
     }
 
     /**
-     * Find the deepest node which matches the provide search path and which has a leaf with parameters
-     * attached to it.
+     * Find the deepest node in the current tree. See {@link ConfigurationSnapshot#matchNode(List)}.
      *
      * @param levelSearchTermsList A list of queries, which consists of a map: (level-name: search-term).
-     * @return Empty list if no matching node was found. Otherwise a list of tuples with the parameters of the deepest node found
-     * and the full path to the matching node.
+     * @return Empty list if no matching node was found.
      */
     @Nonnull
     SearchResultsDTO matchNode(@Nonnull final List<Map<String, String>> levelSearchTermsList) {
-
-        // Result list.
-        final List<SearchResultDTO> results = new ArrayList<>();
-
-        // Process all search queries.
-        for (final Map<String, String> levelSearchTerms : levelSearchTermsList) {
-            LOG.debug("matchNode: search #{}, levelSearchTerms={}", results.size() + 1, levelSearchTerms);
-
-            /*
-             * Search tree for parameters. Start with assuming the search fails and the result is
-             * the ultimate fallback: the parameters of the root node.
-             */
-            Node nodeOfParameters = root;       // This points at the node the parameters were taken from.
-            Node nodeToCheck = root;            // This points at the node to we need to dive into.
-            if (root.getLevels() != null) {     // Only execute search if levels actually exist.
-
-                for (final String levelName : root.getLevels()) {
-                    boolean found = false;          // This indicates whether we found a match or not.
-
-                    // Find the corresponding search term in the query.
-                    final String searchTerm = nullToEmpty(levelSearchTerms.get(levelName));
-                    LOG.debug("matchNode:   {}={}", levelName, searchTerm);
-
-                    /**
-                     * Check all children nodes of this node (if they exist).
-                     */
-                    final Collection<Node> children = nodeToCheck.getNodes();
-                    if (children != null) {
-
-                        /**
-                         * First check all 'exact' literal (non-regex) matches. If the string match is exact,
-                         * regular expression matches will not be checked. This is to make sure that if
-                         * a ".*" node is specified "left of" other nodes, it does not overrule literal
-                         * matches.
-                         */
-                        final List<Node> nonExactMatches = new ArrayList<>();
-                        for (final Node child : children) {
-
-                            // The name of children is a regex.
-                            final String name = child.getMatch();
-                            assert name != null;
-
-                            // Check if the term matches the node name literally.
-                            //noinspection ConstantConditions
-                            if (searchTerm.matches(createCaseInsensitivePattern(Pattern.quote(name)))) {
-                                LOG.debug("matchNode:     FOUND, literal match, {}={}", levelName, name);
-                                found = true;
-
-                                /**
-                                 * Remember the parameters of this child node, as it is more specific than the
-                                 * one kept until now.
-                                 */
-                                if (child.getParameters() != null) {
-                                    nodeOfParameters = child;
-                                }
-
-                                // Start next search in this subtree.
-                                nodeToCheck = child;
-                                break;
-                            } else {
-
-                                // Keep this node for second round, checking regex matches.
-                                nonExactMatches.add(child);
-                            }
-                        }
-
-                        // Second round: only if no exact match was found, check regular expressions.
-                        if (!found) {
-                            for (final Node child : nonExactMatches) {
-
-                                // The name of children is a regex.
-                                final String match = child.getMatch();
-                                assert match != null;
-
-                                //noinspection ConstantConditions
-                                if (searchTerm.matches(createCaseInsensitivePattern(match))) {
-                                    LOG.debug("matchNode:     FOUND, regular expression match, {}={}", levelName, match);
-                                    found = true;
-
-                                    /**
-                                     * Remember the parameters of this child node, as it is more specific than the
-                                     * one kept until now.
-                                     */
-                                    if (child.getParameters() != null) {
-                                        nodeOfParameters = child;
-                                    }
-
-                                    // Start next search in this subtree.
-                                    nodeToCheck = child;
-                                    break;
-                                }
-                            }
-                        }
-                    }
-
-                    // Stop searching for deeper path terms if we couldn't find a match for this term.
-                    if (!found) {
-                        LOG.debug("matchNode:    NOT FOUND, nothing for {}={}", levelName, searchTerm);
-                        break;
-                    }
-                }
-            }
-
-            final SearchResultDTO searchResult;
-            //noinspection ObjectEquality
-            if (nodeOfParameters == root) {
-
-                if (root.getParameters() == null) {
-
-                    /**
-                     * If no parameters were found, anywhere, then return an empty list. This indicates at least one
-                     * of the queries was not successful. The other queries will not even be executed.
-                     */
-                    return new SearchResultsDTO(Immutables.emptyList());
-                } else {
-
-                    // Return the non-null root parameters as a fallback if no matches were found.
-                    searchResult = new SearchResultDTO(root);
-                }
-            } else {
-
-                // Return the non-null parameters of the found node.
-                searchResult = new SearchResultDTO(nodeOfParameters);
-            }
-
-            // Set the 'searched' attribute.
-            @SuppressWarnings("NonConstantStringShouldBeStringBuffer")
-            String searched = "";
-            for (final String levelName : root.getLevels()) {
-                final String searchTerm = nullToEmpty(levelSearchTerms.get(levelName));
-                searched = searched + (searched.isEmpty() ? "" : "&") + levelName + '=' + searchTerm;
-            }
-            searchResult.setSearched(searched);
-
-            // Set the 'matched' of the node from which the parameters were gotten.
-            final String matched = getMatchedValue(0, root, nodeOfParameters, "").getValue1();
-            searchResult.setMatched(matched);
-            results.add(searchResult);
-            LOG.debug("matchNode:   searched={}, matched={}", searched, matched);
-        }
-        final SearchResultsDTO searchResults = new SearchResultsDTO(results);
-        return searchResults;
+        return snapshot.matchNode(levelSearchTermsList);
     }
 
     /**
-     * Given a full node path, return the node and its parent node, or null.
-     * <p>
-     * Important: If the root node is found, the parent node is ALSO the root node. This is primarily because
-     * you cannot return a null value in a tuple.
+     * Find a node in the current tree. See {@link ConfigurationSnapshot#findNode(String)}.
      *
      * @param fullNodePath Full path to a node, separated by separators.
-     * @return Null if not found. Otherwise a tuple with the node found (value 1) and its parent node (value 2).
+     * @return Null if not found.
      */
     @Nullable
     Node findNode(@Nonnull final String fullNodePath) {
-
-        // Trim path.
-        final String trimmedFullNodePath = fullNodePath.trim();
-
-        // Return root node if path is empty.
-        if (trimmedFullNodePath.isEmpty()) {
-
-            // Important: root has no parent, but you cannot return null as a parent either, so return root as well.
-            return root;
-        }
-
-        // Search tree for right node.
-        Node node = root;
-        for (final String sub : Splitter.on(SEPARATOR_PATH).trimResults().split(trimmedFullNodePath)) {
-            boolean found = false;
-            final Collection<Node> children = node.getNodes();
-            if (children != null) {
-                for (final Node child : children) {
-                    final String name = notNullOr(child.getMatch(), "");
-                    if (name.equals(sub)) {
-                        found = true;
-                        node = child;
-                        break;
-                    }
-                }
-            }
-
-            if (!found) {
-                return null;
-            }
-        }
-        return node;
+        return snapshot.findNode(fullNodePath);
     }
 
     /**
-     * Get matched search terms. Note that the node object itself will be searched for, so the method
-     * will use an object equality test to find a specific node, not an equals() test.
+     * Write a compiled snapshot of the current tree, which can be used as startup configuration.
+     * See {@link SnapshotFile}.
      *
-     * @param level      Number of level at which we are searching.
-     * @param tree       Tree to search the node in.
-     * @param node       Node to search for.
-     * @param pathPrefix Path to be used as prefix (without trailing '/').
-     *                   This is supplied to be able to make the method recursively callable.
-     * @return A tuple with as value 1 the matched search terms, within the specified tree and as value 2 a boolean
-     * which indicates whether the node was found or not. If not, the returned path equals the path prefix.
+     * @param out Output stream, which is not closed.
+     * @throws IOException If the snapshot cannot be written.
      */
-    @Nonnull
-    private Tuple<String, Boolean> getMatchedValue(
-            final int level,
-            @Nonnull final Node tree,
-            @Nullable final Node node,
-            @Nonnull final String pathPrefix) {
-        if (tree.getNodes() != null) {
-            for (final Node child : tree.getNodes()) {
-
-                // Get level name.
-                assert root.getLevels() != null;
-                assert level < root.getLevels().size();
-                @SuppressWarnings("ConstantConditions")
-                final String levelName = root.getLevels().get(level);
-
-                // Get match string from node.
-                final String nodeMatch = notNullOr(child.getMatch(), "");
-
-                // Check if this is the exact node (object equality).
-                //noinspection ObjectEquality
-                if (child == node) {
-
-                    // Get level name and append search term.
-                    return new Tuple<>(pathPrefix + (pathPrefix.isEmpty() ? "" : "&") + levelName + '=' + nodeMatch, true);
-                } else {
-                    final Tuple<String, Boolean> found = getMatchedValue(level + 1, child, node,
-                            pathPrefix + (pathPrefix.isEmpty() ? "" : "&") + levelName + '=' + nodeMatch);
-                    if (found.getValue2()) {
-                        return found;
-                    }
-                }
-            }
-        }
-        return new Tuple<>(pathPrefix, false);
+    public void writeSnapshot(@Nonnull final OutputStream out) throws IOException {
+        SnapshotFile.write(snapshot.getRoot(), out);
     }
 
     /**
-     * Read a configuration from a URI, which may be prefixed http:, https:, file: or classpath:.
-     * The configuration is returned as a single concatenated string.
+     * Read the last-known-good snapshot, if it is configured and exists, and build its tree. The snapshot
+     * is a local file which may have been damaged, so it is checked like a configuration that is parsed.
+     * A snapshot which cannot be read, is incorrect, or from which no tree can be built is ignored, so
+     * the startup configuration is loaded instead.
      *
-     * @param uri URI to read from.
-     * @return Concatenated input lines, or null if reading the configuration failed.
+     * @param configurationServiceProperties Properties.
+     * @return Root of the tree, or null if there is no (correct) snapshot.
      */
-    @Nonnull
-    private static String readConfiguration(@Nonnull final String uri) throws IncorrectConfigurationException {
-        InputStreamReader inputStreamReader = null;
+    @Nullable
+    private static Node readLastKnownGood(@Nonnull final ConfigurationServiceProperties configurationServiceProperties) {
+        final String lastKnownGoodFile = configurationServiceProperties.getLastKnownGoodFile();
+        if ((lastKnownGoodFile == null) || !Files.isRegularFile(Paths.get(lastKnownGoodFile))) {
+            return null;
+        }
         try {
-            if (uri.startsWith("http:") || uri.startsWith("https:")) {
-                final URL httpURL = new URL(uri);
-                final HttpURLConnection connection = (HttpURLConnection) httpURL.openConnection();
-                connection.setRequestMethod("GET");
-
-                final int responseCode = connection.getResponseCode();
-                if (responseCode != Status.OK.getStatusCode()) {
-                    throw new IncorrectConfigurationException("Could not read startup configuration, uri=" + uri + ", responseCode={}" + responseCode);
-                }
-                //noinspection IOResourceOpenedButNotSafelyClosed
-                inputStreamReader = new InputStreamReader(connection.getInputStream());
-
-            } else if (uri.startsWith("file:")) {
-                final String filename = uri.replaceFirst("file::?", "");
-                LOG.debug("readConfiguration: read file={}", filename);
-                //noinspection IOResourceOpenedButNotSafelyClosed
-                inputStreamReader = new FileReader(filename);
-
-            } else if (uri.startsWith("classpath:")) {
-                final String filename = uri.replaceFirst("classpath::?", "");
-                LOG.debug("readConfiguration: read from classpath={}", filename);
-                final InputStream resourceAsStream = Configuration.class.getClassLoader().getResourceAsStream(filename);
-                if (resourceAsStream == null) {
-                    throw new IncorrectConfigurationException("File not found on classpath: uri=" + uri);
-                }
-                //noinspection IOResourceOpenedButNotSafelyClosed
-                inputStreamReader = new InputStreamReader(resourceAsStream);
-
-            } else {
-                throw new IncorrectConfigurationException("Unknown protocol, must specify 'http:', 'https:', 'file:', or 'classpath:'.");
-            }
-        } catch (final IOException e) {
-            LOG.warn("readConfiguration: {}, message={}", uri, e.getMessage());
-            try {
-                assert inputStreamReader != null;
-                //noinspection ConstantConditions
-                inputStreamReader.close();
-            } catch (final IOException ignored) {
-                // Ignored.
-            }
-            throw new IncorrectConfigurationException("Cannot read configuration, url=" + uri + ", exception=" + e.getMessage());
+            final NodeDTO rootDTO = SnapshotFile.read(SourceReader.readFile("file:" + lastKnownGoodFile, lastKnownGoodFile));
+            checkRoot(rootDTO);
+            rootDTO.validate();
+            final Node root = new Node(rootDTO, null, new NodeCache(null, Collections.emptyList()));
+            LOG.info("Tree: Last-known-good snapshot read OK, loading startup configuration in background, file={}, uri={}",
+                    lastKnownGoodFile, configurationServiceProperties.getStartupConfigurationURI());
+            return root;
+        } catch (final IncorrectConfigurationException | RuntimeException e) {
+            LOG.warn("Tree: Last-known-good snapshot cannot be read, ignored, file={}, error={}", lastKnownGoodFile, e.getMessage());
+            return null;
         }
+    }
 
-        // Read input stream.
-        final StringBuilder sb = new StringBuilder();
-        try {
-            //noinspection NestedTryStatement
-            try (BufferedReader buffer = new BufferedReader(inputStreamReader)) {
-                String inputLine;
-                while ((inputLine = buffer.readLine()) != null) {
-                    LOG.trace("readConfiguration: {}", inputLine);
-                    sb.append(inputLine);
-                    sb.append('\n');
-                }
+    /**
+     * Write the current tree to the last-known-good snapshot, if it is configured. Failing to write it
+     * does not affect the current tree.
+     */
+    private void writeLastKnownGood() {
+        final String lastKnownGoodFile = configurationServiceProperties.getLastKnownGoodFile();
+        if (lastKnownGoodFile != null) {
+            try {
+                SnapshotFile.write(snapshot.getRoot(), Paths.get(lastKnownGoodFile));
+                LOG.debug("writeLastKnownGood: snapshot written, file={}", lastKnownGoodFile);
+            } catch (final IOException e) {
+                LOG.warn("writeLastKnownGood: snapshot cannot be written, file={}, error={}", lastKnownGoodFile, e.getMessage());
             }
-        } catch (final IOException e) {
-            throw new IncorrectConfigurationException("readConfiguration: Could not parse configuration, uri={}" + uri +
-                    ", response=" + sb + ", message=" + e.getMessage());
         }
-        return sb.toString();
     }
 
+    /**
+     * Parse and validate a configuration, including all its includes. A compiled snapshot is only
+     * read, as it was expanded and validated when it was written.
+     *
+     * @param content Configuration, JSON, XML or a compiled snapshot, as bytes.
+     * @param reader  Reader of the include files.
+     * @return Root of configuration.
+     * @throws IncorrectConfigurationException If the configuration is incorrect.
+     */
     @Nonnull
-    private static <T> T getChildObjectFromConfiguration(
-            @Nonnull final String content,
-            @Nonnull final JavaType type)
-            throws IncorrectConfigurationException {
-
-        // Read tree as JSON or XML.
+    private static NodeDTO parseConfiguration(
+            @Nonnull final ByteBuffer content,
+            @Nonnull final SourceReader reader) throws IncorrectConfigurationException {
         try {
+            if (SnapshotFile.isSnapshot(content)) {
+                return SnapshotFile.read(content);
+            }
 
-            // Try to read as JSON first.
-            final ObjectMapper mapper = new ObjectMapper();
-            mapper.configure(Feature.ALLOW_COMMENTS, true);
-            return mapper.readValue(content, type);
-        } catch (final IOException e1) {
+            // Read the tree and validate.
+            final NodeDTO rootOfInclude = getRootOfInclude(content, reader);
 
-            // If JSON fails, try XML instead.
-            try {
-                final XmlMapper mapper = new XmlMapper();
-                return mapper.readValue(content, type);
-            } catch (final IOException e2) {
-
-                // Not valid JSON or XML.
-                final String msg;
-                final String jsonError = e1.getMessage();
-                final String xmlError = e2.getMessage();
-                if (jsonError.startsWith("Unexpected character ('<'")) {
-                    msg = "XML ERROR: " + xmlError;
-                } else {
-                    msg = "JSON ERROR: " + jsonError;
-                }
-                throw new IncorrectConfigurationException("Configuration is NOT OK! Should be valid JSON or XML\n" + msg);
-            }
+            // Validate root and all siblings.
+            rootOfInclude.validate();
+            return rootOfInclude;
+        } catch (final ApiException | IncorrectConfigurationException e) {
+            LOG.error("Tree: Configuration cannot be read: {}", e.getMessage());
+            throw new IncorrectConfigurationException(e.getMessage());
         }
     }
 
     @Nonnull
-    private static NodeDTO getRootOfInclude(@Nonnull final String content)
+    private static NodeDTO getRootOfInclude(
+            @Nonnull final ByteBuffer content,
+            @Nonnull final SourceReader reader)
             throws IncorrectConfigurationException {
 
         // Read the tree from the configuration.
-        final NodeDTO rootNotExpanded = getChildObjectFromConfiguration(content, constructType(NodeDTO.class));
+        final NodeDTO rootNotExpanded = DocumentParser.parse(content, DocumentParser.getType(NodeDTO.class));
 
         // Inline all includes recursively.
-        final List<NodeDTO> rootExpanded = expandAllIncludes(rootNotExpanded, new ArrayList<>());
+        final List<NodeDTO> rootExpanded = expandAllIncludes(rootNotExpanded, new ArrayList<>(), reader);
         if (rootExpanded.size() != 1) {
             throw new IncorrectConfigurationException("Configuration is not OK! Root should contain a single node.");
         }
         final NodeDTO root = rootExpanded.get(0);
+        checkRoot(root);
+        return root;
+    }
+
+    /**
+     * Check an expanded configuration: its match strings and levels.
+     *
+     * @param root Root of configuration.
+     * @throws IncorrectConfigurationException If the configuration is incorrect.
+     */
+    private static void checkRoot(@Nonnull final NodeDTO root) throws IncorrectConfigurationException {
 
         // Check if node match strings do not conflict.
         if (!checkNodeMatchStringsRoot(root)) {
@@ -586,13 +539,21 @@ public class Configuration {
                 throw new IncorrectConfigurationException("Incorrect number of 'levels' specified, expecting at least " + deepestLevel + " levels");
             }
         }
-        return root;
     }
 
     private static boolean isValidMatchString(@Nonnull final String match) {
         return (match.indexOf(SEPARATOR_WRONG) + match.indexOf(SEPARATOR_PATH) + match.indexOf(SEPARATOR_QUERY)) == -3;
     }
 
+    private static boolean isValidRegex(@Nonnull final String match) {
+        try {
+            Node.createCaseInsensitivePattern(match);
+            return true;
+        } catch (final PatternSyntaxException ignored) {
+            return false;
+        }
+    }
+
     /**
      * Return the deepest node level.
      *
@@ -647,6 +608,9 @@ public class Configuration {
             } else if (!isValidMatchString(match)) {
                 ok = false;
                 LOG.error("checkNodeMatchStringsChildren: incorrect format for match");
+            } else if (!isValidRegex(match)) {
+                ok = false;
+                LOG.error("checkNodeMatchStringsChildren: match is not a valid regular expression, match={}", match);
             } else if (matches.contains(match)) {
                 ok = false;
                 LOG.error("checkNodeMatchStringsChildren: match string must be unique, match={}", match);
@@ -663,12 +627,14 @@ public class Configuration {
      *
      * @param object   Object to expand.
      * @param included Memory of which include files were processed.
+     * @param reader   Reader of the include files.
      * @return Replacements for the object that was just expanded.
      * @throws IncorrectConfigurationException If include recursion was detected.
      */
     private static <T extends SupportsInclude> List<T> expandAllIncludes(
             @Nonnull final T object,
-            @Nonnull final List<String> included) throws IncorrectConfigurationException {
+            @Nonnull final List<String> included,
+            @Nonnull final SourceReader reader) throws IncorrectConfigurationException {
         final List<T> replacementObjects;
         final String include = object.getInclude();
         final String includeArray = object.getIncludeArray();
@@ -684,9 +650,10 @@ public class Configuration {
                 // No "include" or "include_array" as found, just process children.
                 final List<NodeDTO> childrenNodes = nodeDTO.getNodes();
                 if (childrenNodes != null) {
+                    prefetchIncludes(childrenNodes, reader);
                     final List<NodeDTO> replacementNodes = new ArrayList<>();
                     for (final NodeDTO childNode : childrenNodes) {
-                        replacementNodes.addAll(expandAllIncludes(childNode, included));
+                        replacementNodes.addAll(expandAllIncludes(childNode, included, reader));
                     }
 
                     // Replace existing nodes with expanded ones.
@@ -697,9 +664,10 @@ public class Configuration {
                 // Process parameter objects as well.
                 final List<ParameterDTO> parameters = nodeDTO.getParameters();
                 if (parameters != null) {
+                    prefetchIncludes(parameters, reader);
                     final List<ParameterDTO> replacementParameters = new ArrayList<>();
                     for (final ParameterDTO parameter : parameters) {
-                        replacementParameters.addAll(expandAllIncludes(parameter, included));
+                        replacementParameters.addAll(expandAllIncludes(parameter, included, reader));
                     }
                     nodeDTO.setParameters(new ParameterListDTO(replacementParameters));
                 }
@@ -707,23 +675,12 @@ public class Configuration {
         } else {
 
             // Either include or include_array was specified.
-            final String includeToProcess;
-            final JavaType type;
-            if (include != null) {
-
-                // Was: include.
-                type = constructType(object.getClass());
-                includeToProcess = include;
-            } else {
-                assert includeArray != null;
-
-                // Was: include_array.
-                type = constructCollectionType(List.class, object.getClass());
-                includeToProcess = includeArray;
-            }
+            final String includeToProcess = (include != null) ? include : includeArray;
+            final JavaType type = getIncludeType(object);
+            assert type != null;
 
             // Process include.
-            replacementObjects = getReplacementObjectsFromInclude(type, includeToProcess, included);
+            replacementObjects = getReplacementObjectsFromInclude(type, includeToProcess, included, reader);
             assert ((include != null) && (replacementObjects.size() == 1)) || (includeArray != null);
         }
         return replacementObjects;
@@ -737,6 +694,7 @@ public class Configuration {
      * @param type     Reference to the type of object that should be loaded from the target include.
      * @param include  URI to include.
      * @param included List of files included so far (for cycle detection).
+     * @param reader   Reader of the include files.
      * @return List of replacement objects. The list may always contain multiple or zero returns, as any replacement
      * itself may be an include for zero or multiple objects.
      * @throws IncorrectConfigurationException If there is a detected problem with the configuration at this point.
@@ -745,63 +703,105 @@ public class Configuration {
     private static <T extends SupportsInclude> List<T> getReplacementObjectsFromInclude(
             @Nonnull final JavaType type,
             @Nonnull final String include,
-            @Nonnull final List<String> included) throws IncorrectConfigurationException {
+            @Nonnull final List<String> included,
+            @Nonnull final SourceReader reader) throws IncorrectConfigurationException {
 
         // Check for endless recursion.
         if (included.contains(include)) {
             throw new IncorrectConfigurationException("Endless recursion detected at include=" + include);
         }
 
+        // Use the expanded include of this load or the previous one, if none of its documents changed.
+        final List<T> cachedChildren = reader.findInclude(type, include, included);
+        if (cachedChildren != null) {
+            return cachedChildren;
+        }
+
         // Push name to stack.
         included.add(0, include);
+        reader.startInclude();
 
         // Read JSON content from include.
-        final String content = readConfiguration(include);
+        final ByteBuffer content = reader.read(include);
 
-        // Parse nodes from content.
-        final List<T> childrenNotExpanded;
-        if (type.isCollectionLikeType()) {
+        // Parse nodes from content, unless they were parsed already when the include was prefetched.
+        final Object prefetched = reader.takePrefetched(type, include);
 
-            // Was: include_array.
-            childrenNotExpanded = getChildObjectFromConfiguration(content, type);
+        // Use the expanded contents of a document with the same content, if it was included before.
+        final List<T> sharedChildren = reader.findIncludeWithContent(type, include, included);
+        final List<T> children;
+        if (sharedChildren != null) {
+            children = sharedChildren;
         } else {
+            final List<T> childrenNotExpanded;
+            if (type.isCollectionLikeType()) {
 
-            // Was: include.
-            final T child = getChildObjectFromConfiguration(content, type);
-            childrenNotExpanded = Arrays.asList(child);
-        }
+                // Was: include_array.
+                //noinspection unchecked
+                childrenNotExpanded = (prefetched != null) ? (List<T>) prefetched :
+                        DocumentParser.parse(content, type);
+            } else {
 
-        // Expand all includes in children as well and construct final list of children.
-        final List<T> children = new ArrayList<>();
-        for (final T childNotExpanded : childrenNotExpanded) {
-            children.addAll(expandAllIncludes(childNotExpanded, included));
+                // Was: include.
+                //noinspection unchecked
+                final T child = (prefetched != null) ? (T) prefetched :
+                        DocumentParser.parse(content, type);
+                childrenNotExpanded = Arrays.asList(child);
+            }
+
+            // Expand all includes in children as well and construct final list of children.
+            prefetchIncludes(childrenNotExpanded, reader);
+            children = new ArrayList<>();
+            for (final T childNotExpanded : childrenNotExpanded) {
+                children.addAll(expandAllIncludes(childNotExpanded, included, reader));
+            }
         }
 
         // Pop name from stack.
+        reader.endInclude(type, include, children);
         final String removed = included.remove(0);
         assert removed.equals(include);
         return children;
     }
 
-    @Nonnull
-    private static JavaType constructType(@Nonnull final Class<?> clazz) {
-        return TypeFactory.defaultInstance().constructType(clazz);
-    }
-
-    @SuppressWarnings("rawtypes")
-    @Nonnull
-    private static JavaType constructCollectionType(@Nonnull final Class<? extends Collection> collection, @Nonnull final Class<?> clazz) {
-        return TypeFactory.defaultInstance().constructCollectionType(collection, clazz);
+    /**
+     * Prefetch the includes of a list of sibling objects, so they are read and parsed concurrently.
+     * The includes are still expanded one by one, in order.
+     *
+     * @param objects Objects, some of which may be includes.
+     * @param reader  Reader of the include files.
+     */
+    private static void prefetchIncludes(
+            @Nonnull final List<? extends SupportsInclude> objects,
+            @Nonnull final SourceReader reader) {
+        final Map<String, JavaType> includes = new LinkedHashMap<>();
+        for (final SupportsInclude object : objects) {
+            final JavaType type = getIncludeType(object);
+            if (type != null) {
+                final String include = object.getInclude();
+                includes.put((include != null) ? include : object.getIncludeArray(), type);
+            }
+        }
+        if (includes.size() > 1) {
+            reader.prefetch(includes, DocumentParser::parse);
+        }
     }
 
     /**
-     * Create a regex pattern which matches strings case-insensitive.
+     * Return the type of the object(s) an object should be replaced with.
      *
-     * @param pattern Pattern to make case-insensitive.
-     * @return Case-insensitive pattern.
+     * @param object Object, which may be an include.
+     * @return Type of the object for 'include', list of such objects for 'include_array', or null if the
+     * object is not an include.
      */
-    @Nonnull
-    private static String createCaseInsensitivePattern(@Nonnull final String pattern) {
-        return "(?i:" + pattern + ')';
+    @Nullable
+    private static JavaType getIncludeType(@Nonnull final SupportsInclude object) {
+        if (object.getInclude() != null) {
+            return DocumentParser.getType(object.getClass());
+        }
+        if (object.getIncludeArray() != null) {
+            return DocumentParser.getListType(object.getClass());
+        }
+        return null;
     }
 }
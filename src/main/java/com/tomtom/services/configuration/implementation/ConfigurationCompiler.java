@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.domain.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Command-line compiler of configurations. It reads a configuration, expands all its includes and
+ * checks it exactly like the service does on startup, builds the search tree and writes it as a
+ * compiled snapshot (see {@link SnapshotFile}), which the service can use as startup configuration.
+ * A report with statistics of the tree is printed to standard output.
+ * <p>
+ * Usage: {@code ConfigurationCompiler <configuration-uri> <snapshot-file>}
+ * <p>
+ * The exit status is 0 if the snapshot was written, 1 if the configuration is incorrect and 2 if the
+ * arguments are incorrect or the snapshot cannot be written. This allows the compiler to be used
+ * as a check in a build pipeline, see the 'compile-configuration' profile in the POM.
+ */
+public final class ConfigurationCompiler {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationCompiler.class);
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_INCORRECT_CONFIGURATION = 1;
+    static final int EXIT_ERROR = 2;
+
+    private ConfigurationCompiler() {
+        // Prevent instantiation.
+    }
+
+    public static void main(@Nonnull final String[] args) {
+        System.exit(run(args, System.out));
+    }
+
+    /**
+     * Run the compiler.
+     *
+     * @param args   Command-line arguments.
+     * @param report Stream to print the report to.
+     * @return Exit status.
+     */
+    static int run(@Nonnull final String[] args, @Nonnull final PrintStream report) {
+        if (args.length != 2) {
+            report.println("Usage: ConfigurationCompiler <configuration-uri> <snapshot-file>");
+            return EXIT_ERROR;
+        }
+        final String uri = args[0];
+        final Path snapshotFile = Paths.get(args[1]);
+        try {
+            final long start = System.nanoTime();
+            final Configuration configuration = new Configuration(new ConfigurationServiceProperties(uri));
+            final long loadMillis = (System.nanoTime() - start) / 1_000_000;
+            SnapshotFile.write(configuration.getRoot(), snapshotFile);
+
+            final Statistics statistics = Statistics.of(configuration.getRoot());
+            report.println("Configuration:        " + uri);
+            report.println("Snapshot:             " + snapshotFile + " (" + Files.size(snapshotFile) + " bytes)");
+            report.println("Load time:            " + loadMillis + " ms");
+            report.println("Sources:              " + configuration.getSnapshot().getSources().size());
+            report.println("Nodes:                " + statistics.nrNodes);
+            report.println("Depth:                " + statistics.depth);
+            report.println("Parameters:           " + statistics.nrParameters);
+            report.println("Regex nodes:          " + statistics.nrRegexNodes);
+            report.println("Literal fan-out max:  " + statistics.maxLiteralFanOut);
+            report.println("Literal fan-out avg:  " + String.format(Locale.ROOT, "%.2f", statistics.getAverageLiteralFanOut()));
+            return EXIT_OK;
+        } catch (final IncorrectConfigurationException e) {
+            LOG.error("run: configuration is incorrect, uri={}", uri);
+            report.println("Configuration is incorrect: " + e.getMessage());
+            return EXIT_INCORRECT_CONFIGURATION;
+        } catch (final IOException e) {
+            LOG.error("run: cannot write snapshot, file={}", snapshotFile, e);
+            report.println("Cannot write snapshot: " + e.getMessage());
+            return EXIT_ERROR;
+        }
+    }
+
+    /**
+     * Statistics of a search tree.
+     */
+    @Immutable
+    static final class Statistics {
+        final int nrNodes;
+        final int depth;
+        final int nrParameters;
+        final int nrRegexNodes;
+        final int maxLiteralFanOut;
+        final int nrNodesWithLiteralChildren;
+        final int nrLiteralChildren;
+
+        private Statistics(
+                final int nrNodes,
+                final int depth,
+                final int nrParameters,
+                final int nrRegexNodes,
+                final int maxLiteralFanOut,
+                final int nrNodesWithLiteralChildren,
+                final int nrLiteralChildren) {
+            this.nrNodes = nrNodes;
+            this.depth = depth;
+            this.nrParameters = nrParameters;
+            this.nrRegexNodes = nrRegexNodes;
+            this.maxLiteralFanOut = maxLiteralFanOut;
+            this.nrNodesWithLiteralChildren = nrNodesWithLiteralChildren;
+            this.nrLiteralChildren = nrLiteralChildren;
+        }
+
+        /**
+         * Collect the statistics of a tree. The root node is counted, but does not add to the depth.
+         *
+         * @param root Root of the tree.
+         * @return Statistics.
+         */
+        @Nonnull
+        static Statistics of(@Nonnull final Node root) {
+            final Collection<Node> children = root.getNodes();
+            int nrNodes = 1;
+            int depth = 0;
+            int nrParameters = (root.getParameters() == null) ? 0 : root.getParameters().size();
+            int nrRegexNodes = 0;
+            int literalFanOut = 0;
+            int maxLiteralFanOut = 0;
+            int nrNodesWithLiteralChildren = 0;
+            int nrLiteralChildren = 0;
+            if (children != null) {
+                for (final Node child : children) {
+                    final Statistics statistics = of(child);
+                    nrNodes += statistics.nrNodes;
+                    depth = Math.max(depth, statistics.depth + 1);
+                    nrParameters += statistics.nrParameters;
+                    nrRegexNodes += statistics.nrRegexNodes + (child.isLiteral() ? 0 : 1);
+                    maxLiteralFanOut = Math.max(maxLiteralFanOut, statistics.maxLiteralFanOut);
+                    nrNodesWithLiteralChildren += statistics.nrNodesWithLiteralChildren;
+                    nrLiteralChildren += statistics.nrLiteralChildren;
+                    literalFanOut += child.isLiteral() ? 1 : 0;
+                }
+            }
+            if (literalFanOut > 0) {
+                maxLiteralFanOut = Math.max(maxLiteralFanOut, literalFanOut);
+                ++nrNodesWithLiteralChildren;
+                nrLiteralChildren += literalFanOut;
+            }
+            return new Statistics(nrNodes, depth, nrParameters, nrRegexNodes, maxLiteralFanOut,
+                    nrNodesWithLiteralChildren, nrLiteralChildren);
+        }
+
+        /**
+         * Return the average number of literal children of nodes that have literal children.
+         *
+         * @return Average literal fan-out.
+         */
+        double getAverageLiteralFanOut() {
+            return (nrNodesWithLiteralChildren == 0) ? 0.0 : (((double) nrLiteralChildren) / nrNodesWithLiteralChildren);
+        }
+    }
+}
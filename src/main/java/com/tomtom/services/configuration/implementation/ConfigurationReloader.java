@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class reloads the configuration in the background, on a single thread of its own, so reloads
+ * are never executed on the request path. The configuration is reloaded periodically if the property
+ * "ConfigurationService.reloadIntervalSecs" is set, and whenever a reload is requested.
+ * <p>
+ * If the service started with the last-known-good snapshot, the startup configuration is loaded
+ * immediately, and again every {@link #LAST_KNOWN_GOOD_RETRY_SECS} seconds until it was loaded.
+ * <p>
+ * The reloader is bound as an eager singleton by Guice in the DeploymentModule.
+ */
+public class ConfigurationReloader {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationReloader.class);
+
+    /**
+     * Interval to retry loading the startup configuration while the last-known-good snapshot is used.
+     */
+    static final int LAST_KNOWN_GOOD_RETRY_SECS = 10;
+
+    @Nonnull
+    private final Configuration configuration;
+
+    @Nonnull
+    private final ScheduledExecutorService executor;
+
+    @Inject
+    public ConfigurationReloader(
+            @Nonnull final Configuration configuration,
+            @Nonnull final ConfigurationServiceProperties configurationServiceProperties) {
+        this.configuration = configuration;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "configuration-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Schedule periodic reloads, if needed.
+        final int reloadIntervalSecs = configurationServiceProperties.getReloadIntervalSecs();
+        if (reloadIntervalSecs > 0) {
+            LOG.info("ConfigurationReloader: reload configuration every {} secs, uri={}",
+                    reloadIntervalSecs, configuration.getStartupConfigurationURI());
+            executor.scheduleWithFixedDelay(this::reload, reloadIntervalSecs, reloadIntervalSecs, TimeUnit.SECONDS);
+        }
+
+        // Replace the last-known-good snapshot by the startup configuration as soon as possible.
+        if (configuration.isLastKnownGood()) {
+            executor.execute(this::replaceLastKnownGood);
+        }
+    }
+
+    /**
+     * Request a reload of the configuration. The reload is executed in the background, after any
+     * reload which is currently running.
+     */
+    public void requestReload() {
+        executor.execute(this::reload);
+    }
+
+    /**
+     * Stop reloading the configuration.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void replaceLastKnownGood() {
+        reload();
+        if (configuration.isLastKnownGood() && !executor.isShutdown()) {
+            LOG.warn("replaceLastKnownGood: still using last-known-good snapshot, retry in {} secs, uri={}",
+                    LAST_KNOWN_GOOD_RETRY_SECS, configuration.getStartupConfigurationURI());
+            executor.schedule(this::replaceLastKnownGood, LAST_KNOWN_GOOD_RETRY_SECS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void reload() {
+        try {
+            configuration.reload();
+        } catch (final IncorrectConfigurationException | RuntimeException e) {
+
+            // Keep the current configuration and try again next time.
+            LOG.error("reload: configuration cannot be reloaded, keeping current configuration, uri={}, error={}",
+                    configuration.getStartupConfigurationURI(), e.getMessage());
+        }
+    }
+}
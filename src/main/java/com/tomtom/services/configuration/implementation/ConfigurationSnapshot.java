@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.google.common.base.Splitter;
+import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.dto.SearchResultDTO;
+import com.tomtom.services.configuration.dto.SearchResultsDTO;
+import com.tomtom.speedtools.objects.Immutables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.tomtom.services.configuration.TreeResource.SEPARATOR_PATH;
+import static com.tomtom.speedtools.objects.Objects.notNullOr;
+
+/**
+ * This class holds a single version of the configuration tree, together with the caches that belong
+ * to it. A snapshot never changes: when the configuration is reloaded, a new snapshot is created and
+ * published by {@link Configuration}. Requests use the snapshot that was current when they started,
+ * so a reload never affects a request in flight, and the caches are never shared between trees.
+ */
+@Immutable
+public final class ConfigurationSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationSnapshot.class);
+
+    /**
+     * The root node of the tree.
+     */
+    @Nonnull
+    private final Node root;
+
+    /**
+     * The URIs the tree was read from: the startup configuration and all of its includes.
+     */
+    @Nonnull
+    private final Set<String> sources;
+
+    /**
+     * The serialized search results of the nodes of the tree.
+     */
+    @Nonnull
+    private final SearchResultBodies searchResultBodies;
+
+    /**
+     * The cache of search results of the tree.
+     */
+    @Nonnull
+    private final ResultCache resultCache;
+
+    /**
+     * The search of the tree, for results which are not cached. Created once, rather than per search.
+     */
+    @Nonnull
+    private final ResultCache.Search finder = this::findNodeOfParameters;
+
+    /**
+     * Create a snapshot for a configuration tree.
+     *
+     * @param root            Root of the tree.
+     * @param sources         URIs the tree was read from.
+     * @param resultCacheSize Maximum number of cached search results, 0 to disable the result cache.
+     */
+    public ConfigurationSnapshot(
+            @Nonnull final Node root,
+            @Nonnull final Collection<String> sources,
+            final int resultCacheSize) {
+        this.root = root;
+        this.sources = Immutables.setOf(sources);
+        this.searchResultBodies = new SearchResultBodies();
+        this.resultCache = new ResultCache(root, resultCacheSize);
+    }
+
+    /**
+     * Get the root node.
+     *
+     * @return Root node. Has an empty match strings.
+     */
+    @Nonnull
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the URIs the tree was read from: the startup configuration and all of its includes.
+     *
+     * @return URIs, in the order they were read.
+     */
+    @Nonnull
+    public Set<String> getSources() {
+        return sources;
+    }
+
+    /**
+     * Get the serialized search results of the nodes of the tree.
+     *
+     * @return Cache of serialized search results.
+     */
+    @Nonnull
+    public SearchResultBodies getSearchResultBodies() {
+        return searchResultBodies;
+    }
+
+    /**
+     * Get the cache of search results of the tree.
+     *
+     * @return Cache of search results.
+     */
+    @Nonnull
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Find the deepest node which matches the provide search path and which has a leaf with parameters
+     * attached to it.
+     *
+     * @param levelSearchTermsList A list of queries, which consists of a map: (level-name: search-term).
+     * @return Empty list if no matching node was found. Otherwise a list of tuples with the parameters of the deepest node found
+     * and the full path to the matching node.
+     */
+    @Nonnull
+    public SearchResultsDTO matchNode(@Nonnull final List<Map<String, String>> levelSearchTermsList) {
+        return matchNode(SearchQuery.of(levelSearchTermsList, root.getLevels()));
+    }
+
+    /**
+     * Find the deepest node which matches the provide search path and which has a leaf with parameters
+     * attached to it, for every search of a query.
+     *
+     * @param query Query, parsed for the levels of this tree.
+     * @return Empty list if no matching node was found. Otherwise a list of tuples with the parameters of the deepest node found
+     * and the full path to the matching node.
+     */
+    @Nonnull
+    SearchResultsDTO matchNode(@Nonnull final SearchQuery query) {
+        assert (root.getLevels() == null) ? query.getLevels().isEmpty() : query.getLevels().equals(root.getLevels());
+
+        // Result list.
+        final int nrSearches = query.getNrSearches();
+        final List<SearchResultDTO> results = new ArrayList<>(nrSearches);
+
+        // Process all search queries.
+        for (int search = 0; search < nrSearches; ++search) {
+
+            // Search the tree for the node with parameters, or get it from the result cache.
+            final Node nodeOfParameters = (root.getLevels() == null) ? root :
+                    resultCache.get(query, search, finder);
+
+            final SearchResultDTO searchResult;
+            //noinspection ObjectEquality
+            if (nodeOfParameters == root) {
+
+                if (root.getParameters() == null) {
+
+                    /**
+                     * If no parameters were found, anywhere, then return an empty list. This indicates at least one
+                     * of the queries was not successful. The other queries will not even be executed.
+                     */
+                    return new SearchResultsDTO(Immutables.emptyList());
+                } else {
+
+                    // Return the non-null root parameters as a fallback if no matches were found.
+                    searchResult = new SearchResultDTO(root);
+                }
+            } else {
+
+                // Return the non-null parameters of the found node.
+                searchResult = new SearchResultDTO(nodeOfParameters);
+            }
+
+            // Set the 'searched' attribute.
+            final String searched = createSearched(query, search);
+            searchResult.setSearched(searched);
+
+            // Set the 'matched' of the node from which the parameters were gotten (precomputed when the tree was built).
+            final String matched = nodeOfParameters.getMatched();
+            searchResult.setMatched(matched);
+            results.add(searchResult);
+            LOG.debug("matchNode: searched={}, matched={}", searched, matched);
+        }
+        return new SearchResultsDTO(results);
+    }
+
+    /**
+     * Create the 'searched' attribute of a search: the search terms of all levels, in order.
+     *
+     * @param query  Query.
+     * @param search Index of the search in the query.
+     * @return Search terms, as a query string (not URL-encoded).
+     */
+    @Nonnull
+    private static String createSearched(@Nonnull final SearchQuery query, final int search) {
+        final List<String> levels = query.getLevels();
+        int length = 0;
+        for (int level = 0; level < levels.size(); ++level) {
+            length = length + levels.get(level).length() + query.getTerm(search, level).length() + 2;
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        for (int level = 0; level < levels.size(); ++level) {
+            if (level > 0) {
+                sb.append('&');
+            }
+            sb.append(levels.get(level)).append('=').append(query.getTerm(search, level));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Search the tree for the deepest node which matches the search terms and which has parameters.
+     *
+     * @param query  Query, with its search terms ordered by level.
+     * @param search Index of the search in the query.
+     * @return Node with the parameters for the search terms, or the root node if no node matched.
+     */
+    @Nonnull
+    private Node findNodeOfParameters(@Nonnull final SearchQuery query, final int search) {
+
+        /*
+         * Search tree for parameters. Start with assuming the search fails and the result is
+         * the ultimate fallback: the parameters of the root node.
+         */
+        Node nodeOfParameters = root;       // This points at the node the parameters were taken from.
+        Node nodeToCheck = root;            // This points at the node to we need to dive into.
+        final List<String> levels = query.getLevels();
+        for (int level = 0; level < levels.size(); ++level) {
+
+            // Find the corresponding search term in the query.
+            final String levelName = levels.get(level);
+            final String searchTerm = query.getTerm(search, level);
+            LOG.debug("findNodeOfParameters: {}={}", levelName, searchTerm);
+
+            /**
+             * First check the 'exact' literal (non-regex) matches. If the string match is exact,
+             * regular expression matches will not be checked. This is to make sure that if
+             * a ".*" node is specified "left of" other nodes, it does not overrule literal
+             * matches. Children are indexed by their case-folded match string, so this is a
+             * single lookup, regardless of the number of children.
+             */
+            Node child = nodeToCheck.findLiteralNode(searchTerm);
+            if (child != null) {
+                LOG.debug("findNodeOfParameters:   FOUND, literal match, {}={}", levelName, child.getMatch());
+            } else {
+
+                /**
+                 * Second round: only if no exact match was found, check regular expressions, in order.
+                 * The regular expressions of all children are combined into a single pattern when the
+                 * tree is built, so this is a single match as well.
+                 */
+                child = nodeToCheck.findRegexNode(searchTerm);
+                if (child != null) {
+                    LOG.debug("findNodeOfParameters:   FOUND, regular expression match, {}={}", levelName, child.getMatch());
+                }
+            }
+
+            // Stop searching for deeper path terms if we couldn't find a match for this term.
+            if (child == null) {
+                LOG.debug("findNodeOfParameters:   NOT FOUND, nothing for {}={}", levelName, searchTerm);
+                break;
+            }
+
+            /**
+             * Remember the parameters of this child node, as it is more specific than the
+             * one kept until now.
+             */
+            if (child.getParameters() != null) {
+                nodeOfParameters = child;
+            }
+
+            // Start next search in this subtree.
+            nodeToCheck = child;
+        }
+        return nodeOfParameters;
+    }
+
+    /**
+     * Given a full node path, return the node and its parent node, or null.
+     * <p>
+     * Important: If the root node is found, the parent node is ALSO the root node. This is primarily because
+     * you cannot return a null value in a tuple.
+     *
+     * @param fullNodePath Full path to a node, separated by separators.
+     * @return Null if not found. Otherwise a tuple with the node found (value 1) and its parent node (value 2).
+     */
+    @Nullable
+    public Node findNode(@Nonnull final String fullNodePath) {
+
+        // Trim path.
+        final String trimmedFullNodePath = fullNodePath.trim();
+
+        // Return root node if path is empty.
+        if (trimmedFullNodePath.isEmpty()) {
+
+            // Important: root has no parent, but you cannot return null as a parent either, so return root as well.
+            return root;
+        }
+
+        // Search tree for right node.
+        Node node = root;
+        for (final String sub : Splitter.on(SEPARATOR_PATH).trimResults().split(trimmedFullNodePath)) {
+            boolean found = false;
+            final Collection<Node> children = node.getNodes();
+            if (children != null) {
+                for (final Node child : children) {
+                    final String name = notNullOr(child.getMatch(), "");
+                    if (name.equals(sub)) {
+                        found = true;
+                        node = child;
+                        break;
+                    }
+                }
+            }
+
+            if (!found) {
+                return null;
+            }
+        }
+        return node;
+    }
+}
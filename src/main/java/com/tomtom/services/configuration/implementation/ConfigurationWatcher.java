@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * This class watches the files of the configuration, if the property "ConfigurationService.watchFiles"
+ * is set: the startup configuration and all of its includes, as far as they are 'file:' URIs. When one
+ * of the files changes, the configuration is reloaded in the background.
+ * <p>
+ * Changes are debounced: editors and deployment scripts often write several files (or a single file
+ * several times) in a row, so the configuration is only reloaded once no more changes were seen for
+ * a short while. After every reload which replaced the tree, whether it was started by the watcher or
+ * not, the set of watched files is updated, as includes may have been added or removed.
+ * <p>
+ * The watcher is bound as an eager singleton by Guice in the DeploymentModule.
+ */
+public class ConfigurationWatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationWatcher.class);
+
+    /**
+     * Time without changes after which the configuration is reloaded.
+     */
+    static final long DEBOUNCE_MILLIS = 500;
+
+    @Nonnull
+    private final Configuration configuration;
+
+    private final long debounceMillis;
+
+    /**
+     * Watch service, or null if the files are not watched.
+     */
+    @Nullable
+    private final WatchService watchService;
+
+    /**
+     * Watch keys of the watched directories. Files cannot be watched by themselves, so the directories
+     * that contain them are watched instead.
+     */
+    @Nonnull
+    private final Map<Path, WatchKey> watchedDirectories = new HashMap<>();
+
+    /**
+     * Absolute paths of the watched files.
+     */
+    @Nonnull
+    private volatile Set<Path> watchedFiles = Collections.emptySet();
+
+    /**
+     * Reload listener, which updates the watched files.
+     */
+    @Nonnull
+    private final Runnable reloadListener = this::updateWatchedFiles;
+
+    @Inject
+    public ConfigurationWatcher(
+            @Nonnull final Configuration configuration,
+            @Nonnull final ConfigurationServiceProperties configurationServiceProperties) {
+        this(configuration, configurationServiceProperties.isWatchFiles(), DEBOUNCE_MILLIS);
+    }
+
+    ConfigurationWatcher(
+            @Nonnull final Configuration configuration,
+            final boolean watchFiles,
+            final long debounceMillis) {
+        this.configuration = configuration;
+        this.debounceMillis = debounceMillis;
+        this.watchService = watchFiles ? createWatchService() : null;
+        if (watchService != null) {
+
+            // Register the files before the thread starts, so no changes are missed.
+            updateWatchedFiles();
+            configuration.addReloadListener(reloadListener);
+            LOG.info("ConfigurationWatcher: watch configuration files, files={}", watchedFiles);
+            final Thread thread = new Thread(this::run, "configuration-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Return the files which are currently watched.
+     *
+     * @return Absolute paths of the watched files.
+     */
+    @Nonnull
+    public Set<Path> getWatchedFiles() {
+        return watchedFiles;
+    }
+
+    /**
+     * Stop watching the configuration files.
+     */
+    public void shutdown() {
+        if (watchService != null) {
+            configuration.removeReloadListener(reloadListener);
+            try {
+                watchService.close();
+            } catch (final IOException e) {
+                LOG.warn("shutdown: cannot close watch service, error={}", e.getMessage());
+            }
+        }
+    }
+
+    private void run() {
+        assert watchService != null;
+        try {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                boolean changed = processEvents(watchService.take());
+
+                // Wait until the changes have settled.
+                WatchKey key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    changed = processEvents(key) || changed;
+                    key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (final InterruptedException ignored) {
+            LOG.debug("run: watcher interrupted");
+            Thread.currentThread().interrupt();
+        } catch (final ClosedWatchServiceException ignored) {
+            LOG.debug("run: watcher stopped");
+        }
+    }
+
+    /**
+     * Process the events of a watched directory.
+     *
+     * @param key Key of the directory.
+     * @return True if one of the watched files was changed.
+     */
+    private boolean processEvents(@Nonnull final WatchKey key) {
+        final Path directory = (Path) key.watchable();
+        final Set<Path> files = watchedFiles;
+        boolean changed = false;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+
+                // Events were lost, so any file may have changed.
+                changed = true;
+            } else {
+                final Path file = directory.resolve((Path) event.context());
+                if (files.contains(file)) {
+                    LOG.debug("processEvents: file changed, file={}, kind={}", file, event.kind());
+                    changed = true;
+                }
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void reload() {
+        try {
+            configuration.reload();
+        } catch (final IncorrectConfigurationException | RuntimeException e) {
+
+            // Keep the current configuration and try again after the next change.
+            LOG.error("reload: configuration cannot be reloaded, keeping current configuration, uri={}, error={}",
+                    configuration.getStartupConfigurationURI(), e.getMessage());
+        }
+    }
+
+    /**
+     * Watch the files of the current configuration and stop watching directories which no longer
+     * contain any of them. Called at startup and by the reload listener.
+     */
+    private synchronized void updateWatchedFiles() {
+        assert watchService != null;
+        final Set<Path> files = new HashSet<>();
+        for (final String source : configuration.getSnapshot().getSources()) {
+            final String filename = SourceReader.getFilename(source);
+            if (filename != null) {
+                files.add(Paths.get(filename).toAbsolutePath().normalize());
+            }
+        }
+        final Set<Path> directories = new HashSet<>();
+        for (final Path file : files) {
+            final Path directory = file.getParent();
+            if (directory != null) {
+                directories.add(directory);
+            }
+        }
+
+        // Stop watching directories which are no longer needed.
+        final Iterator<Map.Entry<Path, WatchKey>> iterator = watchedDirectories.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, WatchKey> entry = iterator.next();
+            if (!directories.contains(entry.getKey()) || !entry.getValue().isValid()) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+
+        // Start watching new directories.
+        for (final Path directory : directories) {
+            if (!watchedDirectories.containsKey(directory)) {
+                try {
+                    watchedDirectories.put(directory,
+                            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE));
+                } catch (final IOException e) {
+                    LOG.warn("updateWatchedFiles: cannot watch directory, directory={}, error={}",
+                            directory, e.getMessage());
+                }
+            }
+        }
+        watchedFiles = Collections.unmodifiableSet(files);
+    }
+
+    @Nullable
+    private static WatchService createWatchService() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (final IOException e) {
+            LOG.error("createWatchService: configuration files cannot be watched, error={}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.fasterxml.jackson.core.JsonParser.Feature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class parses configuration documents, which may be JSON or XML. The format is determined from
+ * the first character of the document, rather than by trying to parse it as JSON first, so a document is
+ * parsed only once. The mappers are shared and the readers are created once per type, as creating
+ * them is much more expensive than parsing a small document.
+ * <p>
+ * Documents are parsed from their bytes by the streaming parsers of Jackson, which detect the encoding
+ * of the document, so no (much larger) string copy of a document is created.
+ */
+@ThreadSafe
+final class DocumentParser {
+
+    /**
+     * Bytes of byte order marks, which may precede the content of a document.
+     */
+    private static final byte[] BYTE_ORDER_MARK_BYTES = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, (byte) 0xFE, (byte) 0xFF};
+
+    @Nonnull
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper().configure(Feature.ALLOW_COMMENTS, true);
+
+    @Nonnull
+    private static final XmlMapper XML_MAPPER = new XmlMapper();
+
+    /**
+     * Readers for JSON and XML, per type. They are immutable and can be shared.
+     */
+    @Nonnull
+    private static final ConcurrentMap<JavaType, ObjectReader> JSON_READERS = new ConcurrentHashMap<>();
+    @Nonnull
+    private static final ConcurrentMap<JavaType, ObjectReader> XML_READERS = new ConcurrentHashMap<>();
+
+    /**
+     * Types of included objects, per class, and lists of them.
+     */
+    @Nonnull
+    private static final ConcurrentMap<Class<?>, JavaType> TYPES = new ConcurrentHashMap<>();
+    @Nonnull
+    private static final ConcurrentMap<Class<?>, JavaType> LIST_TYPES = new ConcurrentHashMap<>();
+
+    static {
+
+        // Create the readers of the types of configuration documents up front.
+        for (final Class<?> clazz : new Class<?>[]{NodeDTO.class, ParameterDTO.class}) {
+            for (final JavaType type : new JavaType[]{getType(clazz), getListType(clazz)}) {
+                getReader(type, false);
+                getReader(type, true);
+            }
+        }
+    }
+
+    private DocumentParser() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Parse a document.
+     *
+     * @param <T>     Type of the object(s) in the document.
+     * @param content Document, JSON or XML, from the position to the limit of the buffer.
+     * @param type    Type of the object(s) in the document.
+     * @return Object(s) in the document.
+     * @throws IncorrectConfigurationException If the document is not valid JSON or XML.
+     */
+    @Nonnull
+    static <T> T parse(
+            @Nonnull final ByteBuffer content,
+            @Nonnull final JavaType type) throws IncorrectConfigurationException {
+        final boolean xml = isXml(content);
+        final ObjectReader reader = getReader(type, xml);
+        try {
+            if (content.hasArray()) {
+                return reader.readValue(content.array(), content.arrayOffset() + content.position(), content.remaining());
+            }
+            return reader.readValue(new ByteBufferBackedInputStream(content.duplicate()));
+        } catch (final IOException e) {
+            final String msg = (xml ? "XML ERROR: " : "JSON ERROR: ") + e.getMessage();
+            throw new IncorrectConfigurationException("Configuration is NOT OK! Should be valid JSON or XML\n" + msg);
+        }
+    }
+
+    /**
+     * Return whether a document is an XML document, rather than a JSON document. Both start with an ASCII
+     * character, which is recognized in any Unicode encoding by skipping zero bytes.
+     *
+     * @param content Document, from the position to the limit of the buffer.
+     * @return True if the first character of the document, other than whitespace, is '&lt;'.
+     */
+    static boolean isXml(@Nonnull final ByteBuffer content) {
+        final int limit = content.limit();
+        for (int i = content.position(); i < limit; ++i) {
+            final byte b = content.get(i);
+            if ((b != 0) && !Character.isWhitespace(b) && !isByteOrderMark(b)) {
+                return b == '<';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the type of an object.
+     *
+     * @param clazz Class of the object.
+     * @return Type.
+     */
+    @Nonnull
+    static JavaType getType(@Nonnull final Class<?> clazz) {
+        return TYPES.computeIfAbsent(clazz, key -> TypeFactory.defaultInstance().constructType(key));
+    }
+
+    /**
+     * Get the type of a list of objects.
+     *
+     * @param clazz Class of the objects.
+     * @return Type.
+     */
+    @Nonnull
+    static JavaType getListType(@Nonnull final Class<?> clazz) {
+        return LIST_TYPES.computeIfAbsent(clazz, key -> TypeFactory.defaultInstance().constructCollectionType(List.class, key));
+    }
+
+    private static boolean isByteOrderMark(final byte b) {
+        for (final byte byteOrderMark : BYTE_ORDER_MARK_BYTES) {
+            if (b == byteOrderMark) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nonnull
+    private static ObjectReader getReader(@Nonnull final JavaType type, final boolean xml) {
+        return xml ?
+                XML_READERS.computeIfAbsent(type, XML_MAPPER::readerFor) :
+                JSON_READERS.computeIfAbsent(type, JSON_MAPPER::readerFor);
+    }
+}
@@ -16,9 +16,12 @@
 
 package com.tomtom.services.configuration.implementation;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.common.base.Joiner;
 import com.tomtom.services.configuration.ConfigurationServiceProperties;
 import com.tomtom.services.configuration.HelperResource;
+import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.dto.ResultCacheDTO;
 import com.tomtom.services.configuration.dto.VersionDTO;
 import com.tomtom.speedtools.maven.MavenProperties;
 import org.slf4j.Logger;
@@ -45,6 +48,7 @@ public class HelperResourceImpl implements HelperResource {
             "  GET /version : return the (POM) version of the service and the URI of the configuration\n" +
             "                 file for the search tree.\n" +
             "  GET /status  : return '200 OK' if and only if the service all fine, for monitoring and such.\n" +
+            "  GET /cache   : return the size and hit, miss and eviction counters of the search result cache.\n" +
             "  GET /tree/...: return a specific node from the search tree (hardly ever used).\n" +
             "  GET /tree?...: query the search tree for a configuration, the most commonly used method.\n\n" +
 
@@ -150,15 +154,16 @@ public class HelperResourceImpl implements HelperResource {
     @Nonnull
     public String getHelpHTML() {
         LOG.info("getHelpHTML: show help page", mavenProperties.getPomVersion());
+        final Node root = configuration.getRoot();
         return "<html><pre>\n" +
                 "CONFIGURATION SERVICE (" + mavenProperties.getPomVersion() + ")\n" +
                 "---------------------\n\n" +
                 HELP_TEXT + '\n' +
-                (configuration.getRoot().getLevels() == null ? "" :
+                (root.getLevels() == null ? "" :
                         "CURRENT CONFIGURATION\n\n" +
                                 "The current configuration used by the service is:\n" +
                                 "  URI=" + configuration.getStartupConfigurationURI() + '\n' +
-                                "  levels=" + Joiner.on("/").join(configuration.getRoot().getLevels())) +
+                                "  levels=" + Joiner.on("/").join(root.getLevels())) +
                 "\n</pre></html>\n";
     }
 
@@ -176,6 +181,25 @@ public class HelperResourceImpl implements HelperResource {
         response.resume(Response.ok(result).build());
     }
 
+    @Override
+    public void getResultCache(@Suspended @Nonnull final AsyncResponse response) {
+
+        // No input validation required. Just return the cache statistics.
+        final ResultCache resultCache = configuration.getSnapshot().getResultCache();
+        final CacheStats stats = resultCache.getStats();
+        LOG.info("getResultCache: size={}, stats={}", resultCache.getSize(), stats);
+
+        final ResultCacheDTO result = new ResultCacheDTO(
+                resultCache.getMaximumSize(),
+                resultCache.getSize(),
+                stats.hitCount(),
+                stats.missCount(),
+                stats.evictionCount());
+        result.validate();
+
+        response.resume(Response.ok(result).build());
+    }
+
     @Override
     public void getStatus(@Suspended @Nonnull final AsyncResponse response) {
 
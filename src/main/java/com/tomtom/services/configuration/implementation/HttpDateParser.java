@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.OffsetDateTime;
+import java.time.chrono.IsoChronology;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Locale;
+
+/**
+ * This class parses HTTP dates, such as the value of the header If-Modified-Since ("Sat, 02 Jan 2016
+ * 12:34:56 GMT"). The formatter is immutable, so it is shared without locking. Clients which poll the
+ * same configuration tend to send the same header values (the Last-Modified value they received), so
+ * recently parsed values are kept in a small cache.
+ */
+@ThreadSafe
+final class HttpDateParser {
+
+    /**
+     * Maximum number of parsed values in the cache.
+     */
+    static final int CACHE_SIZE = 1024;
+
+    /**
+     * Values which are longer than this are never valid and not cached.
+     */
+    private static final int MAX_LENGTH = 64;
+
+    /**
+     * Format of RFC 1123, without the day of the week, which is skipped rather than checked. Like
+     * {@link DateTimeFormatter#RFC_1123_DATE_TIME}, the zone is "GMT" or an offset, such as "+0100".
+     */
+    @Nonnull
+    private static final DateTimeFormatter FORMATTER = new DateTimeFormatterBuilder().
+            parseCaseInsensitive().
+            appendPattern("d MMM uuuu HH:mm:ss ").
+            appendOffset("+HHMM", "GMT").
+            toFormatter(Locale.US).
+            withResolverStyle(ResolverStyle.STRICT).
+            withChronology(IsoChronology.INSTANCE);
+
+    @Nonnull
+    private static final Cache<String, DateTime> CACHE = Caffeine.newBuilder().
+            maximumSize(CACHE_SIZE).
+            build();
+
+    private HttpDateParser() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Parse an HTTP date.
+     *
+     * @param value HTTP date, in the format of RFC 1123, such as "Sat, 02 Jan 2016 12:34:56 GMT". The
+     *              day of the week is optional and not checked.
+     * @return Date (in UTC), or null if the value is not a correct HTTP date.
+     */
+    @Nullable
+    static DateTime parse(@Nonnull final String value) {
+        final DateTime cached = CACHE.getIfPresent(value);
+        if (cached != null) {
+            return cached;
+        }
+        if (value.length() > MAX_LENGTH) {
+            return null;
+        }
+        final DateTime dateTime;
+        try {
+            final int separator = value.indexOf(',');
+            final String dateWithoutDay = value.substring(separator + 1).trim();
+            dateTime = new DateTime(OffsetDateTime.parse(dateWithoutDay, FORMATTER).toInstant().toEpochMilli(), DateTimeZone.UTC);
+        } catch (final DateTimeParseException ignored) {
+            return null;
+        }
+        CACHE.put(value, dateTime);
+        return dateTime;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response.Status;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class reads configurations from 'http:' and 'https:' URIs with conditional requests. It remembers
+ * the ETag and Last-Modified headers of every URI, with the content that was returned, and sends them
+ * back as If-None-Match and If-Modified-Since headers on the next request. If the origin responds with
+ * 304 (Not Modified), the remembered content is used, so unchanged documents are not transferred again.
+ * <p>
+ * The cache is shared by all (re)loads of a configuration, so periodic reloads of unchanged documents
+ * are cheap for both the service and the origin of the configuration. The content is kept, because a
+ * document which includes a changed document must be expanded again, even if it was not modified
+ * itself. The content of a response is read straight into a buffer of its Content-Length. The cache also remembers which
+ * versions of the documents the current tree was built from (see {@link #publish(Collection)}), so a
+ * document that changed during a reload which failed is still considered modified on the next reload.
+ */
+@ThreadSafe
+final class HttpSourceCache {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpSourceCache.class);
+
+    /**
+     * Content and validators of a document, per URI. Only documents with validators are kept.
+     */
+    @Nonnull
+    private final ConcurrentMap<String, CachedSource> cachedSources = new ConcurrentHashMap<>();
+
+    /**
+     * The versions of the documents the current tree was built from, per URI.
+     */
+    @Nonnull
+    private final ConcurrentMap<String, CachedSource> publishedSources = new ConcurrentHashMap<>();
+
+    /**
+     * Return whether a URI is an 'http:' or 'https:' URI.
+     *
+     * @param uri URI.
+     * @return True if the URI can be read by this class.
+     */
+    static boolean isHttp(@Nonnull final String uri) {
+        return uri.startsWith("http:") || uri.startsWith("https:");
+    }
+
+    /**
+     * Read the document at a URI. If the document was read before and has not been modified since,
+     * the remembered content is returned.
+     *
+     * @param uri URI to read from.
+     * @return Content of the document, from its position to its limit.
+     * @throws IncorrectConfigurationException If the document cannot be read.
+     */
+    @Nonnull
+    ByteBuffer read(@Nonnull final String uri) throws IncorrectConfigurationException {
+        return request(uri).content.duplicate();
+    }
+
+    /**
+     * Return whether none of the documents of a set of URIs have been modified since the current tree
+     * was built from them. If any of the URIs is not an 'http:' or 'https:' URI, or was not published,
+     * the documents are considered to be modified.
+     *
+     * @param uris URIs of documents.
+     * @return True if all documents are unchanged.
+     */
+    boolean isUnmodified(@Nonnull final Collection<String> uris) {
+        if (uris.isEmpty()) {
+            return false;
+        }
+        for (final String uri : uris) {
+            if (!isHttp(uri)) {
+                return false;
+            }
+            final CachedSource before = publishedSources.get(uri);
+            if (before == null) {
+                return false;
+            }
+            try {
+                if (request(uri) != before) {
+                    return false;
+                }
+            } catch (final IncorrectConfigurationException ignored) {
+
+                // Let the reload report the problem.
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the stamp of the remembered document of a URI, which identifies the version of the document.
+     *
+     * @param uri URI.
+     * @return Stamp, or null if no document is remembered for the URI.
+     */
+    @Nullable
+    String getStamp(@Nonnull final String uri) {
+        final CachedSource cachedSource = cachedSources.get(uri);
+        return (cachedSource == null) ? null : cachedSource.getStamp();
+    }
+
+    /**
+     * Send a conditional request for a URI and return the stamp of its current document.
+     *
+     * @param uri URI.
+     * @return Stamp, or null if the document cannot be read or has no validators.
+     */
+    @Nullable
+    String requestStamp(@Nonnull final String uri) {
+        try {
+            request(uri);
+        } catch (final IncorrectConfigurationException ignored) {
+            return null;
+        }
+        return getStamp(uri);
+    }
+
+    /**
+     * Record that the current tree was built from the documents of a set of URIs, as they were last
+     * read. Call this only after a (re)load succeeded. The documents of all other URIs are forgotten.
+     *
+     * @param uris URIs the current tree was read from.
+     */
+    void publish(@Nonnull final Collection<String> uris) {
+        cachedSources.keySet().retainAll(uris);
+        publishedSources.keySet().retainAll(uris);
+        for (final String uri : uris) {
+            final CachedSource cachedSource = cachedSources.get(uri);
+            if (cachedSource == null) {
+                publishedSources.remove(uri);
+            } else {
+                publishedSources.put(uri, cachedSource);
+            }
+        }
+    }
+
+    /**
+     * Send a (conditional) request for a URI.
+     *
+     * @param uri URI.
+     * @return Remembered document if it was not modified, the new document otherwise. Never null.
+     * @throws IncorrectConfigurationException If the document cannot be read.
+     */
+    @Nonnull
+    private CachedSource request(@Nonnull final String uri) throws IncorrectConfigurationException {
+        final CachedSource cachedSource = cachedSources.get(uri);
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+            connection.setRequestMethod("GET");
+            if (cachedSource != null) {
+                if (cachedSource.eTag != null) {
+                    connection.setRequestProperty(HttpHeaders.IF_NONE_MATCH, cachedSource.eTag);
+                }
+                if (cachedSource.lastModified != null) {
+                    connection.setRequestProperty(HttpHeaders.IF_MODIFIED_SINCE, cachedSource.lastModified);
+                }
+            }
+
+            final int responseCode = connection.getResponseCode();
+            if ((responseCode == Status.NOT_MODIFIED.getStatusCode()) && (cachedSource != null)) {
+                LOG.debug("request: not modified, uri={}", uri);
+                connection.disconnect();
+                return cachedSource;
+            }
+            if (responseCode != Status.OK.getStatusCode()) {
+                throw new IncorrectConfigurationException("Could not read startup configuration, uri=" + uri + ", responseCode={}" + responseCode);
+            }
+
+            final ByteBuffer content = SourceReader.readBytes(uri, connection.getInputStream(), connection.getContentLengthLong());
+            final CachedSource newCachedSource = new CachedSource(
+                    connection.getHeaderField(HttpHeaders.ETAG),
+                    connection.getHeaderField(HttpHeaders.LAST_MODIFIED),
+                    content);
+            if ((newCachedSource.eTag != null) || (newCachedSource.lastModified != null)) {
+                cachedSources.put(uri, newCachedSource);
+            } else {
+                cachedSources.remove(uri);
+            }
+            return newCachedSource;
+        } catch (final IOException e) {
+            LOG.warn("request: {}, message={}", uri, e.getMessage());
+            throw new IncorrectConfigurationException("Cannot read configuration, url=" + uri + ", exception=" + e.getMessage());
+        }
+    }
+
+    @Immutable
+    private static final class CachedSource {
+        @Nullable
+        private final String eTag;
+        @Nullable
+        private final String lastModified;
+        @Nonnull
+        private final ByteBuffer content;
+
+        private CachedSource(
+                @Nullable final String eTag,
+                @Nullable final String lastModified,
+                @Nonnull final ByteBuffer content) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+
+        @Nonnull
+        private String getStamp() {
+            return eTag + ' ' + lastModified;
+        }
+    }
+}
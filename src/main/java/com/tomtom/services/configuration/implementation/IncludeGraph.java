@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.tomtom.services.configuration.domain.NodeCache;
+import com.tomtom.services.configuration.dto.SupportsInclude;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class holds the include dependency graph of a loaded configuration: the version of every document
+ * that was read and, for every include, its expanded contents and the documents they were read from.
+ * It is used by the next reload to skip reading, parsing and expanding includes of which none of the
+ * documents changed, and to share the nodes created for them with the previous tree.
+ * <p>
+ * Includes are also kept by the content of their document, so a document which is included through
+ * different URIs, or which was rewritten with the same content, is parsed and expanded only once.
+ */
+@Immutable
+final class IncludeGraph {
+
+    @Nonnull
+    private final Map<String, Source> sources;
+
+    @Nonnull
+    private final Map<String, Include> includes;
+
+    @Nonnull
+    private final Map<String, Include> contentIncludes;
+
+    @Nonnull
+    private final NodeCache nodeCache;
+
+    IncludeGraph(
+            @Nonnull final Map<String, Source> sources,
+            @Nonnull final Map<String, Include> includes,
+            @Nonnull final Map<String, Include> contentIncludes,
+            @Nonnull final NodeCache nodeCache) {
+        this.sources = Collections.unmodifiableMap(sources);
+        this.includes = Collections.unmodifiableMap(includes);
+        this.contentIncludes = Collections.unmodifiableMap(contentIncludes);
+        this.nodeCache = nodeCache;
+    }
+
+    /**
+     * Get the version of a document.
+     *
+     * @param uri URI of the document.
+     * @return Version, or null if the document was not read.
+     */
+    @Nullable
+    Source getSource(@Nonnull final String uri) {
+        return sources.get(uri);
+    }
+
+    /**
+     * Get an include.
+     *
+     * @param key Key of the include, see {@link #createKey(JavaType, String)}.
+     * @return Include, or null if it was not included.
+     */
+    @Nullable
+    Include getInclude(@Nonnull final String key) {
+        return includes.get(key);
+    }
+
+    /**
+     * Get an include by the content of its document.
+     *
+     * @param contentKey Key of the content, see {@link #createContentKey(JavaType, String)}.
+     * @return Include, or null if no document with this content was included.
+     */
+    @Nullable
+    Include getContentInclude(@Nonnull final String contentKey) {
+        return contentIncludes.get(contentKey);
+    }
+
+    /**
+     * Get the nodes created for the contents of the includes.
+     *
+     * @return Node cache.
+     */
+    @Nonnull
+    NodeCache getNodeCache() {
+        return nodeCache;
+    }
+
+    /**
+     * Create the key of an include. The same document may be included as a node, a list of nodes,
+     * a parameter or a list of parameters.
+     *
+     * @param type Type of the included object(s).
+     * @param uri  URI of the include.
+     * @return Key.
+     */
+    @Nonnull
+    static String createKey(@Nonnull final JavaType type, @Nonnull final String uri) {
+        return type.toCanonical() + ' ' + uri;
+    }
+
+    /**
+     * Create the key of the content of an include. Documents with the same content, included as the
+     * same type, have the same expanded contents.
+     *
+     * @param type        Type of the included object(s).
+     * @param contentHash Hash of the content of the document.
+     * @return Key.
+     */
+    @Nonnull
+    static String createContentKey(@Nonnull final JavaType type, @Nonnull final String contentHash) {
+        return type.toCanonical() + " #" + contentHash;
+    }
+
+    /**
+     * Version of a document which was read.
+     */
+    @Immutable
+    static final class Source {
+
+        /**
+         * Stamp of the document, which changes if the document changes, or null if the document has no
+         * reliable stamp and must be compared by content.
+         */
+        @Nullable
+        private final String stamp;
+
+        /**
+         * Hash of the content of the document.
+         */
+        @Nonnull
+        private final String contentHash;
+
+        Source(@Nullable final String stamp, @Nonnull final String contentHash) {
+            this.stamp = stamp;
+            this.contentHash = contentHash;
+        }
+
+        @Nullable
+        String getStamp() {
+            return stamp;
+        }
+
+        @Nonnull
+        String getContentHash() {
+            return contentHash;
+        }
+    }
+
+    /**
+     * Expanded contents of an include.
+     */
+    @Immutable
+    static final class Include {
+
+        /**
+         * URI of the include.
+         */
+        @Nonnull
+        private final String uri;
+
+        /**
+         * The objects the include was replaced with. All includes in them have been expanded.
+         */
+        @Nonnull
+        private final List<? extends SupportsInclude> children;
+
+        /**
+         * URIs of the documents the children were read from: the include itself and all includes in it.
+         */
+        @Nonnull
+        private final Set<String> sources;
+
+        Include(
+                @Nonnull final String uri,
+                @Nonnull final List<? extends SupportsInclude> children,
+                @Nonnull final Set<String> sources) {
+            this.uri = uri;
+            this.children = Collections.unmodifiableList(children);
+            this.sources = Collections.unmodifiableSet(sources);
+        }
+
+        @Nonnull
+        String getUri() {
+            return uri;
+        }
+
+        @Nonnull
+        List<? extends SupportsInclude> getChildren() {
+            return children;
+        }
+
+        @Nonnull
+        Set<String> getSources() {
+            return sources;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.ConfigurationServiceProperties.ExecutionMode;
+import com.tomtom.speedtools.apivalidation.exceptions.ApiException;
+import com.tomtom.speedtools.rest.GeneralExceptionMapper;
+import com.tomtom.speedtools.rest.ResourceHandler;
+import com.tomtom.speedtools.rest.ResourceProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Option;
+import scala.concurrent.Future;
+import scala.util.Try;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class executes the handlers of requests, in the execution mode of the service, see {@link
+ * ExecutionMode}. By default, handlers are executed by the {@link ResourceProcessor}, on the Akka
+ * execution context. The handlers of the /tree resource are non-blocking and only use the CPU, so they
+ * can also be executed directly on the container thread, or on a virtual thread per request, which
+ * avoids passing every request to another thread pool.
+ * <p>
+ * In the 'direct' and 'virtual' modes, a handler must resume the response itself and return a completed
+ * future, like all handlers of this service. Exceptions and failed futures are mapped to responses like
+ * the {@link ResourceProcessor} does.
+ */
+@ThreadSafe
+public final class RequestExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestExecutor.class);
+
+    @Nonnull
+    private final ExecutionMode mode;
+
+    @Nonnull
+    private final ResourceProcessor processor;
+
+    /**
+     * Executor which starts a virtual thread per task, only for mode 'virtual'.
+     */
+    @Nullable
+    private final ExecutorService virtualThreadExecutor;
+
+    @Inject
+    public RequestExecutor(
+            @Nonnull final ConfigurationServiceProperties configurationServiceProperties,
+            @Nonnull final ResourceProcessor processor) {
+        this(configurationServiceProperties.getExecutionMode(), processor);
+    }
+
+    public RequestExecutor(
+            @Nonnull final ExecutionMode mode,
+            @Nonnull final ResourceProcessor processor) {
+        this.mode = mode;
+        this.processor = processor;
+        this.virtualThreadExecutor = (mode == ExecutionMode.VIRTUAL) ? createVirtualThreadExecutor() : null;
+        LOG.info("RequestExecutor: mode={}", mode);
+    }
+
+    /**
+     * Return whether the JRE supports virtual threads, which are required for mode 'virtual'.
+     *
+     * @return True if virtual threads can be created.
+     */
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            newVirtualThreadPerTaskExecutor().shutdown();
+            return true;
+        } catch (final ReflectiveOperationException | UnsupportedOperationException ignored) {
+            return false;
+        }
+    }
+
+    @Nonnull
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Execute the handler of a request.
+     *
+     * @param name     Name of the handler, for logging.
+     * @param log      Logger of the resource.
+     * @param response Response of the request.
+     * @param handler  Handler.
+     */
+    public void process(
+            @Nonnull final String name,
+            @Nonnull final Logger log,
+            @Nonnull final AsyncResponse response,
+            @Nonnull final ResourceHandler handler) {
+        switch (mode) {
+            case DIRECT:
+                execute(name, log, response, handler);
+                break;
+
+            case VIRTUAL:
+                assert virtualThreadExecutor != null;
+                virtualThreadExecutor.execute(() -> execute(name, log, response, handler));
+                break;
+
+            default:
+                processor.process(name, log, response, handler);
+        }
+    }
+
+    /**
+     * Execute a handler on the current thread.
+     *
+     * @param name     Name of the handler, for logging.
+     * @param log      Logger of the resource.
+     * @param response Response of the request.
+     * @param handler  Handler.
+     */
+    private static void execute(
+            @Nonnull final String name,
+            @Nonnull final Logger log,
+            @Nonnull final AsyncResponse response,
+            @Nonnull final ResourceHandler handler) {
+        try {
+            final Future<?> future = handler.process();
+            final Option<? extends Try<?>> result = future.value();
+            if (result.isEmpty()) {
+                throw new IllegalStateException("Handler did not complete, handler=" + name);
+            }
+            if (result.get().isFailure()) {
+                log.info("process: resource exception, handler=" + name, result.get().failed().get());
+                response.resume(GeneralExceptionMapper.toResponse(log, result.get().failed().get()));
+            } else if (result.get().get() != null) {
+                response.resume(Response.ok(result.get().get()).build());
+            }
+        } catch (final Exception e) {
+            if ((e instanceof RuntimeException) && !(e instanceof ApiException)) {
+                log.error("process: exception encountered, handler={}", name, e);
+            } else {
+                log.info("process: exception encountered, handler={}, exception={}", name, e.getMessage());
+            }
+            response.resume(GeneralExceptionMapper.toResponse(log, e));
+        }
+    }
+
+    @Nonnull
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return newVirtualThreadPerTaskExecutor();
+        } catch (final ReflectiveOperationException | UnsupportedOperationException e) {
+            throw new IllegalStateException("Execution mode 'virtual' requires a JRE with virtual threads (found JRE " +
+                    System.getProperty("java.version") + ").", e);
+        }
+    }
+
+    /**
+     * Create an executor which starts a virtual thread per task. The service is compiled for Java 8, so
+     * the method is called by reflection.
+     *
+     * @return Executor.
+     * @throws ReflectiveOperationException  If the JRE has no virtual threads.
+     * @throws UnsupportedOperationException If virtual threads are a preview feature which is not enabled.
+     */
+    @Nonnull
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof UnsupportedOperationException) {
+                throw (UnsupportedOperationException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
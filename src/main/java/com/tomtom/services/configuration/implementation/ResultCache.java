@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.tomtom.services.configuration.domain.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * This class caches the results of searches in a configuration tree: the node which provides the
+ * parameters for a set of search terms. The cache is bounded in size and uses a frequency-aware
+ * eviction policy (Window TinyLFU), which suits the skewed distribution of search queries well.
+ * <p>
+ * Search terms are normalized before they are used as a key: they are ordered by level and other
+ * query parameters are left out (see {@link SearchQuery}). If the tree matches all search terms case-insensitively, the search
+ * terms are case-folded as well.
+ * <p>
+ * The cache belongs to a single configuration tree, so it never returns results of another tree.
+ */
+@ThreadSafe
+public final class ResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultCache.class);
+
+    /**
+     * Cache of search results, or null if the cache is disabled.
+     */
+    @Nullable
+    private final Cache<String, Node> cache;
+
+    /**
+     * Maximum number of cached search results.
+     */
+    private final long maximumSize;
+
+    /**
+     * True if search terms can be case-folded, because the tree matches them case-insensitively.
+     */
+    private final boolean foldCase;
+
+    /**
+     * Create a result cache for a configuration tree.
+     *
+     * @param root        Root of the tree.
+     * @param maximumSize Maximum number of cached search results, 0 to disable the cache.
+     */
+    public ResultCache(@Nonnull final Node root, final long maximumSize) {
+        assert maximumSize >= 0;
+        this.cache = (maximumSize == 0) ? null : Caffeine.newBuilder().
+                maximumSize(maximumSize).
+                recordStats().
+                build();
+        this.maximumSize = maximumSize;
+        this.foldCase = isCaseInsensitive(root);
+        LOG.debug("ResultCache: maximumSize={}, foldCase={}", maximumSize, foldCase);
+    }
+
+    /**
+     * Function to search the tree, if the result of a search was not cached.
+     */
+    @FunctionalInterface
+    interface Search {
+
+        /**
+         * Search the tree.
+         *
+         * @param query  Query.
+         * @param search Index of the search in the query.
+         * @return Node which provides the parameters for the search terms.
+         */
+        @Nonnull
+        Node find(@Nonnull SearchQuery query, int search);
+    }
+
+    /**
+     * Get the result of a search from the cache, or compute it and add it to the cache. The result
+     * may be computed more than once if it is requested concurrently, which is harmless, but this
+     * way no mapping function needs to be created for every lookup.
+     *
+     * @param query  Query.
+     * @param search Index of the search in the query.
+     * @param finder Function to search the tree, if the result was not cached.
+     * @return Node which provides the parameters for the search terms.
+     */
+    @Nonnull
+    Node get(
+            @Nonnull final SearchQuery query,
+            final int search,
+            @Nonnull final Search finder) {
+        if (cache == null) {
+            return finder.find(query, search);
+        }
+        final String key = createKey(query, search);
+        Node node = cache.getIfPresent(key);
+        if (node == null) {
+            node = finder.find(query, search);
+            cache.put(key, node);
+        }
+        return node;
+    }
+
+    /**
+     * Return whether the cache is enabled.
+     *
+     * @return False if the cache is disabled.
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Return the maximum number of cached search results.
+     *
+     * @return Maximum number of cached search results, 0 if disabled.
+     */
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Return the (approximate) number of cached search results.
+     *
+     * @return Number of cached search results.
+     */
+    public long getSize() {
+        return (cache == null) ? 0 : cache.estimatedSize();
+    }
+
+    /**
+     * Return the hit, miss and eviction counters of the cache.
+     *
+     * @return Cache statistics, all zero if the cache is disabled.
+     */
+    @Nonnull
+    public CacheStats getStats() {
+        return (cache == null) ? CacheStats.empty() : cache.stats();
+    }
+
+    /**
+     * Create the normalized key for the search terms of a search. Every term is prefixed with its
+     * length, so search terms with any characters in them produce distinct keys.
+     *
+     * @param query  Query, with its search terms ordered by level.
+     * @param search Index of the search in the query.
+     * @return Key.
+     */
+    @Nonnull
+    String createKey(
+            @Nonnull final SearchQuery query,
+            final int search) {
+        final int nrLevels = query.getLevels().size();
+        int length = 0;
+        for (int level = 0; level < nrLevels; ++level) {
+            length = length + query.getTerm(search, level).length() + 4;
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        for (int level = 0; level < nrLevels; ++level) {
+            final String searchTerm = query.getTerm(search, level);
+            sb.append(searchTerm.length()).append(':').append(foldCase ? Node.foldCase(searchTerm) : searchTerm);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return whether all match strings of a tree match case-insensitively. This is not the case if a
+     * regular expression uses embedded flags, which may switch case-insensitive matching off, or
+     * character properties, which do not match case-insensitively.
+     *
+     * @param node Root of (sub)tree.
+     * @return True if case-folding the search terms does not change the search results.
+     */
+    static boolean isCaseInsensitive(@Nonnull final Node node) {
+        final String match = node.getMatch();
+        if ((match != null) && (match.contains("(?") || match.contains("\\p") || match.contains("\\P"))) {
+            return false;
+        }
+        if (node.getNodes() != null) {
+            for (final Node child : node.getNodes()) {
+                if (!isCaseInsensitive(child)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.google.common.base.CharMatcher;
+import com.tomtom.speedtools.apivalidation.exceptions.ApiParameterSyntaxException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Strings.nullToEmpty;
+import static com.tomtom.services.configuration.TreeResource.SEPARATOR_QUERY;
+import static com.tomtom.services.configuration.TreeResource.SEPARATOR_WRONG;
+
+/**
+ * This class holds the search terms of a query, such as {@code service=traffic&model=a,b}, which
+ * specifies one or more searches. The query parameters are parsed once, into a single array of
+ * search terms, ordered by search and by the levels of the tree. Query parameters which are not a
+ * level of the tree are checked, but not kept, as they are not used by the search.
+ * <p>
+ * A level may have fewer search terms than there are searches. The last search term of the level
+ * is then used for the remaining searches. A level without a query parameter has an empty search
+ * term.
+ */
+@Immutable
+final class SearchQuery {
+
+    @Nonnull
+    private static final CharMatcher WHITESPACE = CharMatcher.whitespace();
+
+    /**
+     * Level names of the tree, in order.
+     */
+    @Nonnull
+    private final List<String> levels;
+
+    /**
+     * Search terms, for search i and level j at index (i * levels.size()) + j.
+     */
+    @Nonnull
+    private final String[] terms;
+
+    private final int nrSearches;
+
+    private SearchQuery(
+            @Nonnull final List<String> levels,
+            @Nonnull final String[] terms,
+            final int nrSearches) {
+        assert terms.length == (nrSearches * levels.size());
+        this.levels = levels;
+        this.terms = terms;
+        this.nrSearches = nrSearches;
+    }
+
+    /**
+     * Parse the query parameters of a request. Search terms are separated by {@link
+     * com.tomtom.services.configuration.TreeResource#SEPARATOR_QUERY} and trimmed. Only the first value
+     * of a query parameter is used.
+     *
+     * @param queryParameters Query parameters, (level-name: search-terms).
+     * @param levels          Level names of the tree, in order, or null if the tree has no levels.
+     * @return Search query.
+     * @throws ApiParameterSyntaxException If a search term contains {@link
+     *                                     com.tomtom.services.configuration.TreeResource#SEPARATOR_WRONG}.
+     */
+    @Nonnull
+    static SearchQuery parse(
+            @Nonnull final Map<String, List<String>> queryParameters,
+            @Nullable final List<String> levels) {
+
+        // Determine how many searches are specified, and check all search terms.
+        int nrSearches = 0;
+        for (final Map.Entry<String, List<String>> queryParameter : queryParameters.entrySet()) {
+            final String value = getFirst(queryParameter.getValue());
+            if (value.indexOf(SEPARATOR_WRONG) >= 0) {
+                throw new ApiParameterSyntaxException(queryParameter.getKey(), getTermWithWrongSeparator(value),
+                        "Search terms cannot contain '" + SEPARATOR_WRONG + "'.");
+            }
+            nrSearches = Math.max(nrSearches, countTerms(value));
+        }
+
+        // Split the search terms of every level straight into their position in the array.
+        final List<String> searchLevels = (levels == null) ? Collections.emptyList() : levels;
+        final int nrLevels = searchLevels.size();
+        final String[] terms = new String[nrSearches * nrLevels];
+        for (int level = 0; level < nrLevels; ++level) {
+            final List<String> values = queryParameters.get(searchLevels.get(level));
+            final String value = (values == null) ? null : getFirst(values);
+            String term = "";
+            int start = 0;
+            for (int search = 0; search < nrSearches; ++search) {
+                if ((value != null) && (start <= value.length())) {
+                    final int end = endOfTerm(value, start);
+                    term = trim(value, start, end);
+                    start = end + 1;
+                }
+                terms[(search * nrLevels) + level] = term;
+            }
+        }
+        return new SearchQuery(searchLevels, terms, nrSearches);
+    }
+
+    /**
+     * Create a query from maps of search terms.
+     *
+     * @param levelSearchTermsList A list of searches, which consists of a map: (level-name: search-term).
+     * @param levels               Level names of the tree, in order, or null if the tree has no levels.
+     * @return Search query.
+     */
+    @Nonnull
+    static SearchQuery of(
+            @Nonnull final List<Map<String, String>> levelSearchTermsList,
+            @Nullable final List<String> levels) {
+        final List<String> searchLevels = (levels == null) ? Collections.emptyList() : levels;
+        final int nrLevels = searchLevels.size();
+        final String[] terms = new String[levelSearchTermsList.size() * nrLevels];
+        int i = 0;
+        for (final Map<String, String> levelSearchTerms : levelSearchTermsList) {
+            for (final String levelName : searchLevels) {
+                terms[i] = nullToEmpty(levelSearchTerms.get(levelName));
+                ++i;
+            }
+        }
+        return new SearchQuery(searchLevels, terms, levelSearchTermsList.size());
+    }
+
+    /**
+     * Get the level names the search terms are ordered by.
+     *
+     * @return Level names, in order.
+     */
+    @Nonnull
+    List<String> getLevels() {
+        return levels;
+    }
+
+    int getNrSearches() {
+        return nrSearches;
+    }
+
+    /**
+     * Get a search term.
+     *
+     * @param search Index of the search.
+     * @param level  Index of the level.
+     * @return Search term, empty if none was specified.
+     */
+    @Nonnull
+    String getTerm(final int search, final int level) {
+        assert (0 <= search) && (search < nrSearches);
+        assert (0 <= level) && (level < levels.size());
+        return terms[(search * levels.size()) + level];
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("[");
+        for (int search = 0; search < nrSearches; ++search) {
+            sb.append((search == 0) ? "{" : ", {");
+            for (int level = 0; level < levels.size(); ++level) {
+                sb.append((level == 0) ? "" : ", ").append(levels.get(level)).append('=').append(getTerm(search, level));
+            }
+            sb.append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    @Nonnull
+    private static String getFirst(@Nullable final List<String> values) {
+        return ((values == null) || values.isEmpty()) ? "" : nullToEmpty(values.get(0));
+    }
+
+    private static int countTerms(@Nonnull final String value) {
+        int count = 1;
+        for (int i = value.indexOf(SEPARATOR_QUERY); i >= 0; i = value.indexOf(SEPARATOR_QUERY, i + 1)) {
+            ++count;
+        }
+        return count;
+    }
+
+    private static int endOfTerm(@Nonnull final String value, final int start) {
+        final int end = value.indexOf(SEPARATOR_QUERY, start);
+        return (end < 0) ? value.length() : end;
+    }
+
+    /**
+     * Return a trimmed part of a string. No copy is made if the part is the whole string.
+     *
+     * @param value String.
+     * @param start Start index, inclusive.
+     * @param end   End index, exclusive.
+     * @return Part of the string, without leading and trailing whitespace.
+     */
+    @Nonnull
+    private static String trim(@Nonnull final String value, final int start, final int end) {
+        int from = start;
+        int to = end;
+        while ((from < to) && WHITESPACE.matches(value.charAt(from))) {
+            ++from;
+        }
+        while ((to > from) && WHITESPACE.matches(value.charAt(to - 1))) {
+            --to;
+        }
+        return value.substring(from, to);
+    }
+
+    @Nonnull
+    private static String getTermWithWrongSeparator(@Nonnull final String value) {
+        final int wrong = value.indexOf(SEPARATOR_WRONG);
+        final int start = value.lastIndexOf(SEPARATOR_QUERY, wrong) + 1;
+        return trim(value, start, endOfTerm(value, wrong));
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.dto.SearchResultDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Strings.nullToEmpty;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class caches the serialized JSON and XML representations of search results, per node. The
+ * representation of a search result only depends on the node that was found, except for the 'searched'
+ * value. So, every node is serialized only once, with a placeholder for the 'searched' value, and the
+ * serialized bytes before and after the placeholder are stored. A response is written by writing the
+ * stored bytes, with the escaped 'searched' value in between.
+ * <p>
+ * The cache belongs to a single configuration tree: nodes are used as (identity) keys, so nodes of
+ * other trees are never found in it.
+ */
+@ThreadSafe
+public final class SearchResultBodies {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchResultBodies.class);
+
+    /**
+     * Placeholder for the 'searched' value. It consists of letters, digits and dashes only, so it is
+     * never escaped in JSON or XML. The random part makes sure it does not occur in parameters.
+     */
+    private static final String PLACEHOLDER = "searched-" + UUID.randomUUID();
+
+    private static final byte[] JSON_START_LIST = "[".getBytes(UTF_8);
+    private static final byte[] JSON_SEPARATOR = ",".getBytes(UTF_8);
+    private static final byte[] JSON_END_LIST = "]".getBytes(UTF_8);
+
+    private static final byte[] XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>".getBytes(UTF_8);
+    private static final byte[] XML_START_LIST = "<searchResults>".getBytes(UTF_8);
+    private static final byte[] XML_END_LIST = "</searchResults>".getBytes(UTF_8);
+
+    /**
+     * JSON mapper for search results. This is a default Jackson mapper, like the one used by the
+     * RESTEasy JSON provider (the SpeedTools mapper is not registered as its context resolver), so
+     * the output is the same as the output of the generic provider. SearchResultBodiesTest checks
+     * this against the provider itself.
+     */
+    @Nonnull
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    /**
+     * JAXB context for search results. The context is thread-safe, but marshallers are not.
+     */
+    @Nonnull
+    private static final JAXBContext JAXB_CONTEXT = createJAXBContext();
+
+    @Nonnull
+    private final ConcurrentMap<Node, Fragments> jsonFragments = new ConcurrentHashMap<>();
+
+    @Nonnull
+    private final ConcurrentMap<Node, Fragments> xmlFragments = new ConcurrentHashMap<>();
+
+    /**
+     * Write the JSON representation of search results.
+     *
+     * @param searchResults Search results; the node and 'searched' value of each result are used.
+     * @param asList        True if the results must be written as a list, false to write a single result.
+     * @param out           Output stream.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeJson(
+            @Nonnull final List<SearchResultDTO> searchResults,
+            final boolean asList,
+            @Nonnull final OutputStream out) throws IOException {
+        assert asList || (searchResults.size() == 1);
+        if (asList) {
+            out.write(JSON_START_LIST);
+        }
+        boolean first = true;
+        for (final SearchResultDTO searchResult : searchResults) {
+            if (!first) {
+                out.write(JSON_SEPARATOR);
+            }
+            first = false;
+            final Fragments fragments = jsonFragments.computeIfAbsent(searchResult.getNode(), SearchResultBodies::createJsonFragments);
+            out.write(fragments.prefix);
+            out.write(JsonStringEncoder.getInstance().quoteAsUTF8(nullToEmpty(searchResult.getSearched())));
+            out.write(fragments.suffix);
+        }
+        if (asList) {
+            out.write(JSON_END_LIST);
+        }
+    }
+
+    /**
+     * Write the XML representation of search results.
+     *
+     * @param searchResults Search results; the node and 'searched' value of each result are used.
+     * @param asList        True if the results must be written as a list, false to write a single result.
+     * @param out           Output stream.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeXml(
+            @Nonnull final List<SearchResultDTO> searchResults,
+            final boolean asList,
+            @Nonnull final OutputStream out) throws IOException {
+        assert asList || (searchResults.size() == 1);
+        out.write(XML_HEADER);
+        if (asList) {
+            out.write(XML_START_LIST);
+        }
+        for (final SearchResultDTO searchResult : searchResults) {
+            final Fragments fragments = xmlFragments.computeIfAbsent(searchResult.getNode(), SearchResultBodies::createXmlFragments);
+            out.write(fragments.prefix);
+            out.write(escapeXml(nullToEmpty(searchResult.getSearched())).getBytes(UTF_8));
+            out.write(fragments.suffix);
+        }
+        if (asList) {
+            out.write(XML_END_LIST);
+        }
+    }
+
+    /**
+     * Escape a string for use as XML element text, the same way JAXB does. Characters which are not
+     * allowed in XML 1.0, such as most control characters and unpaired surrogates, are removed, as
+     * they cannot be represented in XML at all.
+     *
+     * @param value String to escape.
+     * @return Escaped string.
+     */
+    @Nonnull
+    static String escapeXml(@Nonnull final String value) {
+        StringBuilder sb = null;
+        for (int i = 0; i < value.length(); ++i) {
+            final char ch = value.charAt(i);
+            final String replacement;
+            switch (ch) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                default:
+                    replacement = isXmlChar(value, i) ? null : "";
+            }
+            if (replacement != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(value.length() + 16).append(value, 0, i);
+                }
+                sb.append(replacement);
+            } else if (sb != null) {
+                sb.append(ch);
+            }
+        }
+        return (sb == null) ? value : sb.toString();
+    }
+
+    /**
+     * Return whether a character is allowed in XML 1.0. A surrogate is allowed only as part of a pair.
+     *
+     * @param value String.
+     * @param index Index of the character.
+     * @return False if the character must be removed.
+     */
+    private static boolean isXmlChar(@Nonnull final String value, final int index) {
+        final char ch = value.charAt(index);
+        if (ch < 0x20) {
+            return (ch == '\t') || (ch == '\n') || (ch == '\r');
+        }
+        if (Character.isHighSurrogate(ch)) {
+            return ((index + 1) < value.length()) && Character.isLowSurrogate(value.charAt(index + 1));
+        }
+        if (Character.isLowSurrogate(ch)) {
+            return (index > 0) && Character.isHighSurrogate(value.charAt(index - 1));
+        }
+        return (ch != 0xFFFE) && (ch != 0xFFFF);
+    }
+
+    @Nonnull
+    private static Fragments createJsonFragments(@Nonnull final Node node) {
+        try {
+            final String json = JSON_MAPPER.writeValueAsString(createSearchResultWithPlaceholder(node));
+            LOG.debug("createJsonFragments: matched={}, json={}", node.getMatched(), json);
+            return new Fragments(json);
+        } catch (final JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize search result to JSON, matched=" + node.getMatched(), e);
+        }
+    }
+
+    @Nonnull
+    private static Fragments createXmlFragments(@Nonnull final Node node) {
+        try {
+            final Marshaller marshaller = JAXB_CONTEXT.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            final StringWriter writer = new StringWriter();
+            marshaller.marshal(createSearchResultWithPlaceholder(node), writer);
+            final String xml = writer.toString();
+            LOG.debug("createXmlFragments: matched={}, xml={}", node.getMatched(), xml);
+            return new Fragments(xml);
+        } catch (final JAXBException e) {
+            throw new IllegalStateException("Cannot serialize search result to XML, matched=" + node.getMatched(), e);
+        }
+    }
+
+    @Nonnull
+    private static SearchResultDTO createSearchResultWithPlaceholder(@Nonnull final Node node) {
+        final SearchResultDTO searchResult = new SearchResultDTO(node);
+        searchResult.setSearched(PLACEHOLDER);
+        searchResult.setMatched(node.getMatched());
+        searchResult.validate();
+        return searchResult;
+    }
+
+    @Nonnull
+    private static JAXBContext createJAXBContext() {
+        try {
+            return JAXBContext.newInstance(SearchResultDTO.class);
+        } catch (final JAXBException e) {
+            throw new IllegalStateException("Cannot create JAXB context for search results", e);
+        }
+    }
+
+    /**
+     * Serialized search result, split at the placeholder of the 'searched' value.
+     */
+    @Immutable
+    private static final class Fragments {
+        @Nonnull
+        private final byte[] prefix;
+        @Nonnull
+        private final byte[] suffix;
+
+        private Fragments(@Nonnull final String serialized) {
+            final int index = serialized.indexOf(PLACEHOLDER);
+            assert index >= 0;
+            this.prefix = serialized.substring(0, index).getBytes(UTF_8);
+            this.suffix = serialized.substring(index + PLACEHOLDER.length()).getBytes(UTF_8);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.dto.SearchResultDTO;
+import com.tomtom.services.configuration.dto.SearchResultsDTO;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class is the response entity of a search. It is written by {@link SearchResultsBodyWriter},
+ * using the serialized search results from {@link SearchResultBodies}, rather than by the generic
+ * JSON and XML providers.
+ */
+@Immutable
+public final class SearchResultsBody {
+
+    @Nonnull
+    private final SearchResultsDTO searchResults;
+
+    @Nonnull
+    private final SearchResultBodies searchResultBodies;
+
+    /**
+     * Create a response entity for search results.
+     *
+     * @param searchResults      Search results. A single result is written as an object, multiple results as a list.
+     * @param searchResultBodies Cache of serialized search results, of the configuration tree the results were found in.
+     */
+    public SearchResultsBody(
+            @Nonnull final SearchResultsDTO searchResults,
+            @Nonnull final SearchResultBodies searchResultBodies) {
+        assert !searchResults.isEmpty();
+        this.searchResults = searchResults;
+        this.searchResultBodies = searchResultBodies;
+    }
+
+    @Nonnull
+    public SearchResultsDTO getSearchResults() {
+        return searchResults;
+    }
+
+    /**
+     * Write the search results in the given media type.
+     *
+     * @param mediaType Media type, JSON or XML.
+     * @param out       Output stream.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeTo(@Nonnull final MediaType mediaType, @Nonnull final OutputStream out) throws IOException {
+        final boolean asList = searchResults.size() > 1;
+        if (SearchResultsBodyWriter.isXml(mediaType)) {
+            searchResultBodies.writeXml(searchResults, asList, out);
+        } else {
+            searchResultBodies.writeJson(searchResults, asList, out);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (final SearchResultDTO searchResult : searchResults) {
+            sb.append((sb.length() == 0) ? "" : ", ").append(searchResult.getSearched()).append(" -> ").append(searchResult.getMatched());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * This class writes {@link SearchResultsBody} entities as JSON or XML, directly from the
+ * pre-serialized search results, without using Jackson or JAXB per request.
+ */
+@Provider
+@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+public class SearchResultsBodyWriter implements MessageBodyWriter<SearchResultsBody> {
+
+    @Override
+    public boolean isWriteable(
+            @Nonnull final Class<?> type,
+            @Nullable final Type genericType,
+            @Nullable final Annotation[] annotations,
+            @Nullable final MediaType mediaType) {
+        return SearchResultsBody.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(
+            @Nonnull final SearchResultsBody searchResultsBody,
+            @Nullable final Class<?> type,
+            @Nullable final Type genericType,
+            @Nullable final Annotation[] annotations,
+            @Nullable final MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(
+            @Nonnull final SearchResultsBody searchResultsBody,
+            @Nullable final Class<?> type,
+            @Nullable final Type genericType,
+            @Nullable final Annotation[] annotations,
+            @Nonnull final MediaType mediaType,
+            @Nullable final MultivaluedMap<String, Object> httpHeaders,
+            @Nonnull final OutputStream entityStream) throws IOException {
+        searchResultsBody.writeTo(mediaType, entityStream);
+    }
+
+    /**
+     * Return whether a media type is XML, rather than JSON.
+     *
+     * @param mediaType Media type.
+     * @return True for XML media types.
+     */
+    static boolean isXml(@Nonnull final MediaType mediaType) {
+        final String subtype = mediaType.getSubtype();
+        return "xml".equalsIgnoreCase(subtype) || subtype.toLowerCase().endsWith("+xml");
+    }
+}
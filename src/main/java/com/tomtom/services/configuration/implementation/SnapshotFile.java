@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.domain.Parameter;
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+import com.tomtom.services.configuration.dto.ParameterListDTO;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class writes and reads compiled configuration snapshots: a compact binary representation of a
+ * fully expanded and validated configuration tree. A snapshot can be used as startup configuration, in
+ * which case no JSON or XML is parsed, no includes are expanded and no checks are repeated: the tree
+ * is only built from it.
+ * <p>
+ * The format is:
+ * <pre>
+ *     snapshot   := MAGIC version strings node
+ *     strings    := count (length utf8-bytes)*
+ *     node       := match modified levels parameters nodes
+ *     match      := string-ref
+ *     modified   := string-ref
+ *     levels     := count string-ref*
+ *     parameters := count (string-ref string-ref)*
+ *     nodes      := count node*
+ * </pre>
+ * All numbers are unsigned variable-length integers (7 bits per byte, least significant first). A
+ * string-ref is 0 for null, or the index in the string table plus 1. A count is 0 for null, or the
+ * number of elements plus 1. Every distinct string is stored once, so repeated parameters are cheap.
+ * Trees deeper than {@link #MAX_DEPTH} levels are not written or read.
+ */
+final class SnapshotFile {
+
+    /**
+     * Magic bytes at the start of a snapshot. They can never start a JSON or XML document.
+     */
+    private static final byte[] MAGIC = {'C', 'S', 'N', 'A', 'P', 0};
+
+    private static final int VERSION = 1;
+
+    /**
+     * Maximum depth of a tree, so a corrupt snapshot cannot exhaust the stack.
+     */
+    static final int MAX_DEPTH = 1000;
+
+    @Nonnull
+    private static final DateTimeFormatter MODIFIED_FORMAT = ISODateTimeFormat.dateTime().withZoneUTC();
+
+    private SnapshotFile() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Return whether a document is a snapshot.
+     *
+     * @param content Document, from the position to the limit of the buffer.
+     * @return True if the document starts with the magic bytes of a snapshot.
+     */
+    static boolean isSnapshot(@Nonnull final ByteBuffer content) {
+        if (content.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; ++i) {
+            if (content.get(content.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write a snapshot of a configuration tree.
+     *
+     * @param root Root of the tree.
+     * @param out  Output stream, which is not closed.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    static void write(@Nonnull final Node root, @Nonnull final OutputStream out) throws IOException {
+        final Map<String, Integer> stringRefs = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+        final ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+        writeNode(nodes, root, 0, stringRefs, strings);
+
+        out.write(MAGIC);
+        writeNumber(out, VERSION);
+        writeNumber(out, strings.size());
+        for (final String string : strings) {
+            final byte[] bytes = string.getBytes(UTF_8);
+            writeNumber(out, bytes.length);
+            out.write(bytes);
+        }
+        nodes.writeTo(out);
+    }
+
+    /**
+     * Write a snapshot of a configuration tree to a file. The snapshot is written to a temporary file
+     * first and moved in place, so a service never reads a partially written snapshot.
+     *
+     * @param root Root of the tree.
+     * @param file Snapshot file. Its directory is created if needed.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    static void write(@Nonnull final Node root, @Nonnull final Path file) throws IOException {
+        final Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporaryFile)) {
+                write(root, out);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Read a snapshot of a configuration tree.
+     *
+     * @param content Snapshot, from the position to the limit of the buffer.
+     * @return Root of the tree.
+     * @throws IncorrectConfigurationException If the snapshot is incorrect or has an unsupported version.
+     */
+    @Nonnull
+    static NodeDTO read(@Nonnull final ByteBuffer content) throws IncorrectConfigurationException {
+        if (!isSnapshot(content)) {
+            throw new IncorrectConfigurationException("Configuration snapshot is not OK! Incorrect header.");
+        }
+        final ByteBuffer buffer = content.duplicate();
+        buffer.position(buffer.position() + MAGIC.length);
+        try {
+            final int version = readNumber(buffer);
+            if (version != VERSION) {
+                throw new IncorrectConfigurationException("Configuration snapshot is not OK! Unsupported version=" + version);
+            }
+            final String[] strings = new String[readLength(buffer)];
+            for (int i = 0; i < strings.length; ++i) {
+                final byte[] bytes = new byte[readLength(buffer)];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, UTF_8);
+            }
+            final NodeDTO root = readNode(buffer, 0, strings);
+            if (buffer.hasRemaining()) {
+                throw new IncorrectConfigurationException("Configuration snapshot is not OK! Unexpected data at end.");
+            }
+            return root;
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IncorrectConfigurationException("Configuration snapshot is not OK! Truncated or corrupt, exception=" + e);
+        }
+    }
+
+    private static void writeNode(
+            @Nonnull final OutputStream out,
+            @Nonnull final Node node,
+            final int depth,
+            @Nonnull final Map<String, Integer> stringRefs,
+            @Nonnull final List<String> strings) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Configuration tree is too deep for a snapshot, maximum depth=" + MAX_DEPTH);
+        }
+        final DateTime modified = node.getModified();
+        writeString(out, node.getMatch(), stringRefs, strings);
+        writeString(out, (modified == null) ? null : MODIFIED_FORMAT.print(modified), stringRefs, strings);
+
+        final List<String> levels = node.getLevels();
+        writeCount(out, levels);
+        if (levels != null) {
+            for (final String level : levels) {
+                writeString(out, level, stringRefs, strings);
+            }
+        }
+
+        final Collection<Parameter> parameters = node.getParameters();
+        writeCount(out, parameters);
+        if (parameters != null) {
+            for (final Parameter parameter : parameters) {
+                writeString(out, parameter.getKey(), stringRefs, strings);
+                writeString(out, parameter.getValue(), stringRefs, strings);
+            }
+        }
+
+        final Collection<Node> children = node.getNodes();
+        writeCount(out, children);
+        if (children != null) {
+            for (final Node child : children) {
+                writeNode(out, child, depth + 1, stringRefs, strings);
+            }
+        }
+    }
+
+    @Nonnull
+    private static NodeDTO readNode(
+            @Nonnull final ByteBuffer buffer,
+            final int depth,
+            @Nonnull final String[] strings) throws IncorrectConfigurationException {
+        if (depth > MAX_DEPTH) {
+            throw new IncorrectConfigurationException("Configuration snapshot is not OK! Tree deeper than maximum depth=" + MAX_DEPTH);
+        }
+        final String match = readString(buffer, strings);
+        final String modified = readString(buffer, strings);
+
+        final int nrLevels = readCount(buffer);
+        List<String> levels = null;
+        if (nrLevels >= 0) {
+            levels = new ArrayList<>(nrLevels);
+            for (int i = 0; i < nrLevels; ++i) {
+                levels.add(readNonNullString(buffer, strings));
+            }
+        }
+
+        final int nrParameters = readCount(buffer);
+        ParameterListDTO parameters = null;
+        if (nrParameters >= 0) {
+            final List<ParameterDTO> parameterDTOs = new ArrayList<>(nrParameters);
+            for (int i = 0; i < nrParameters; ++i) {
+                final String key = readNonNullString(buffer, strings);
+                parameterDTOs.add(new ParameterDTO(key, readNonNullString(buffer, strings)));
+            }
+            parameters = new ParameterListDTO(parameterDTOs);
+        }
+
+        final int nrNodes = readCount(buffer);
+        List<NodeDTO> nodes = null;
+        if (nrNodes >= 0) {
+            nodes = new ArrayList<>(nrNodes);
+            for (int i = 0; i < nrNodes; ++i) {
+                nodes.add(readNode(buffer, depth + 1, strings));
+            }
+        }
+        return new NodeDTO(match, nodes, parameters, modified, levels, null, null);
+    }
+
+    private static void writeString(
+            @Nonnull final OutputStream out,
+            @Nullable final String string,
+            @Nonnull final Map<String, Integer> stringRefs,
+            @Nonnull final List<String> strings) throws IOException {
+        if (string == null) {
+            writeNumber(out, 0);
+            return;
+        }
+        Integer ref = stringRefs.get(string);
+        if (ref == null) {
+            strings.add(string);
+            ref = strings.size();
+            stringRefs.put(string, ref);
+        }
+        writeNumber(out, ref);
+    }
+
+    @Nullable
+    private static String readString(@Nonnull final ByteBuffer buffer, @Nonnull final String[] strings) {
+        final int ref = readNumber(buffer);
+        return (ref == 0) ? null : strings[ref - 1];
+    }
+
+    @Nonnull
+    private static String readNonNullString(
+            @Nonnull final ByteBuffer buffer,
+            @Nonnull final String[] strings) throws IncorrectConfigurationException {
+        final String string = readString(buffer, strings);
+        if (string == null) {
+            throw new IncorrectConfigurationException("Configuration snapshot is not OK! Unexpected null string.");
+        }
+        return string;
+    }
+
+    private static void writeCount(@Nonnull final OutputStream out, @Nullable final Collection<?> collection) throws IOException {
+        writeNumber(out, (collection == null) ? 0 : (collection.size() + 1));
+    }
+
+    /**
+     * Read a count, which cannot exceed the remaining number of bytes, as every element takes at
+     * least one byte.
+     *
+     * @param buffer Buffer.
+     * @return Number of elements, or -1 for null.
+     */
+    private static int readCount(@Nonnull final ByteBuffer buffer) {
+        final int count = readNumber(buffer) - 1;
+        if (count > buffer.remaining()) {
+            throw new IllegalArgumentException("Count exceeds data, count=" + count);
+        }
+        return count;
+    }
+
+    private static void writeNumber(@Nonnull final OutputStream out, final int number) throws IOException {
+        assert number >= 0;
+        int value = number;
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Read a length, which cannot exceed the remaining number of bytes, as every element takes at
+     * least one byte.
+     *
+     * @param buffer Buffer.
+     * @return Length.
+     */
+    private static int readLength(@Nonnull final ByteBuffer buffer) {
+        final int length = readNumber(buffer);
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Length exceeds data, length=" + length);
+        }
+        return length;
+    }
+
+    private static int readNumber(@Nonnull final ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Number out of range");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Number too long");
+    }
+}
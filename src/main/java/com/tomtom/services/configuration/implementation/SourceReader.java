@@ -0,0 +1,723 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.tomtom.services.configuration.domain.NodeCache;
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.SupportsInclude;
+import com.tomtom.services.configuration.implementation.IncludeGraph.Include;
+import com.tomtom.services.configuration.implementation.IncludeGraph.Source;
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class reads the documents of a single (re)load of a configuration: the startup configuration and
+ * all of its includes. It keeps track of the URIs it read, so they can be watched or checked for changes
+ * later. Documents from 'http:' and 'https:' URIs are read through a shared {@link HttpSourceCache}.
+ * <p>
+ * The reader also builds the {@link IncludeGraph} of the configuration. If the include graph of the
+ * previous load is given, includes of which none of the documents changed are taken from it, without
+ * reading, parsing or expanding them again. Whether a document changed is decided by its stamp (for
+ * files), a conditional request (for 'http:' and 'https:' URIs) or, if that is inconclusive, its content.
+ * Documents on the classpath never change.
+ * <p>
+ * An include which is read anyway is looked up by the content of its document as well: if a document
+ * with the same content was included before, during this load or the previous one, its expanded
+ * contents are shared, rather than parsing and expanding the document again.
+ * <p>
+ * Includes are expanded one by one, in order, but sibling includes can be prefetched: they are read and
+ * parsed concurrently, before they are expanded. This makes loading configurations with many includes,
+ * especially remote ones, scale with the available I/O concurrency and cores.
+ * <p>
+ * Documents are read as bytes, which are handed to the parser as they are, so the parser determines
+ * their character encoding. Large files are memory-mapped rather than read into the heap.
+ * <p>
+ * The reader must be closed after the load, to stop the threads used for prefetching.
+ */
+@NotThreadSafe
+final class SourceReader implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(SourceReader.class);
+
+    /**
+     * Files modified less than this time before they were read may be modified again without
+     * changing their stamp, as the resolution of modification times may be coarse.
+     */
+    private static final long RACY_MILLIS = 2000;
+
+    /**
+     * Maximum number of documents which are read concurrently. Reading is mostly waiting for I/O,
+     * so this exceeds the number of cores.
+     */
+    private static final int NR_READ_THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Files of at least this size are memory-mapped, rather than read into the heap.
+     */
+    private static final long MAP_THRESHOLD = 16L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Maximum size of a document which is read into the heap.
+     */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Parser of documents, which creates the object(s) of a type from a document.
+     */
+    @FunctionalInterface
+    interface Parser {
+        @Nonnull
+        Object parse(@Nonnull ByteBuffer content, @Nonnull JavaType type) throws IncorrectConfigurationException;
+    }
+
+    @Nonnull
+    private final HttpSourceCache httpSourceCache;
+
+    /**
+     * Include graph of the previous load, or null if there is none.
+     */
+    @Nullable
+    private final IncludeGraph previous;
+
+    @Nonnull
+    private final Set<String> sources = new LinkedHashSet<>();
+
+    /**
+     * Versions of the documents which were read or checked during this load.
+     */
+    @Nonnull
+    private final Map<String, Source> versions = new HashMap<>();
+
+    /**
+     * Contents of the documents which were read during this load.
+     */
+    @Nonnull
+    private final Map<String, ByteBuffer> contents = new HashMap<>();
+
+    /**
+     * Expanded includes of this load, by key.
+     */
+    @Nonnull
+    private final Map<String, Include> includes = new HashMap<>();
+
+    /**
+     * Expanded includes of this load, by content key.
+     */
+    @Nonnull
+    private final Map<String, Include> contentIncludes = new HashMap<>();
+
+    /**
+     * URIs of the documents read for every include which is being expanded, innermost first.
+     */
+    @Nonnull
+    private final Deque<Set<String>> openIncludes = new ArrayDeque<>();
+
+    /**
+     * Parsed contents of prefetched includes, by key. They are removed when they are used.
+     */
+    @Nonnull
+    private final Map<String, Object> prefetched = new HashMap<>();
+
+    /**
+     * Executor used to prefetch includes, created when it is needed.
+     */
+    @Nullable
+    private ExecutorService executor = null;
+
+    private int nrReusedIncludes = 0;
+
+    private int nrSharedIncludes = 0;
+
+    SourceReader(@Nonnull final HttpSourceCache httpSourceCache) {
+        this(httpSourceCache, null);
+    }
+
+    SourceReader(@Nonnull final HttpSourceCache httpSourceCache, @Nullable final IncludeGraph previous) {
+        this.httpSourceCache = httpSourceCache;
+        this.previous = previous;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Read a configuration from a URI, which may be prefixed http:, https:, file: or classpath:.
+     * The configuration is returned as bytes, in the encoding of the document.
+     *
+     * @param uri URI to read from.
+     * @return Content of the document, from its position to its limit. The buffer may be read-only.
+     * @throws IncorrectConfigurationException If the configuration cannot be read.
+     */
+    @Nonnull
+    ByteBuffer read(@Nonnull final String uri) throws IncorrectConfigurationException {
+        addSources(Collections.singleton(uri));
+        final ByteBuffer content = contents.get(uri);
+        if (content != null) {
+            return content.duplicate();
+        }
+        final Document document = readDocument(uri);
+        versions.put(uri, document.source);
+        contents.put(uri, document.content);
+        return document.content.duplicate();
+    }
+
+    /**
+     * Read and parse a number of includes concurrently, so they need not be read or parsed when they
+     * are expanded. Includes which were read before, or may be taken from the previous load, are skipped.
+     * Includes which cannot be read or parsed are skipped as well: the problem is reported when they
+     * are expanded.
+     *
+     * @param includesToPrefetch Includes, as a map of (URI: type of the included object(s)).
+     * @param parser             Parser for the includes.
+     */
+    void prefetch(@Nonnull final Map<String, JavaType> includesToPrefetch, @Nonnull final Parser parser) {
+        final Map<String, JavaType> candidates = new LinkedHashMap<>();
+        for (final Map.Entry<String, JavaType> include : includesToPrefetch.entrySet()) {
+            final String key = IncludeGraph.createKey(include.getValue(), include.getKey());
+            if (!contents.containsKey(include.getKey()) && !prefetched.containsKey(key) && !includes.containsKey(key) &&
+                    ((previous == null) || (previous.getInclude(key) == null))) {
+                candidates.put(include.getKey(), include.getValue());
+            }
+        }
+
+        // A single include is read when it is expanded.
+        if (candidates.size() < 2) {
+            return;
+        }
+        final Map<String, Future<Prefetched>> futures = new LinkedHashMap<>();
+        for (final Map.Entry<String, JavaType> candidate : candidates.entrySet()) {
+            final String uri = candidate.getKey();
+            final JavaType type = candidate.getValue();
+            futures.put(IncludeGraph.createKey(type, uri), getExecutor().submit(() -> {
+                final Document document = readDocument(uri);
+                return new Prefetched(uri, document, parser.parse(document.content.duplicate(), type));
+            }));
+        }
+        LOG.debug("prefetch: prefetch includes, count={}", futures.size());
+        for (final Map.Entry<String, Future<Prefetched>> future : futures.entrySet()) {
+            try {
+                final Prefetched result = future.getValue().get();
+                versions.put(result.uri, result.document.source);
+                contents.put(result.uri, result.document.content);
+                prefetched.put(future.getKey(), result.parsed);
+            } catch (final ExecutionException e) {
+                LOG.debug("prefetch: cannot prefetch include, key={}, error={}", future.getKey(), e.getMessage());
+            } catch (final InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take the parsed contents of a prefetched include.
+     *
+     * @param type    Type of the included object(s).
+     * @param include URI of the include.
+     * @return Parsed contents, or null if the include was not prefetched.
+     */
+    @Nullable
+    Object takePrefetched(@Nonnull final JavaType type, @Nonnull final String include) {
+        return prefetched.remove(IncludeGraph.createKey(type, include));
+    }
+
+    /**
+     * Find the expanded contents of an include, if it was expanded before during this load or if it
+     * was expanded during the previous load and none of its documents changed since.
+     *
+     * @param <T>      Type of included objects.
+     * @param type     Type of the included object(s).
+     * @param include  URI of the include.
+     * @param included List of files included so far (for cycle detection).
+     * @return Expanded contents, or null if the include needs to be read, parsed and expanded.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    <T extends SupportsInclude> List<T> findInclude(
+            @Nonnull final JavaType type,
+            @Nonnull final String include,
+            @Nonnull final List<String> included) {
+        final String key = IncludeGraph.createKey(type, include);
+        final boolean expandedBefore = includes.containsKey(key);
+        final Include found = expandedBefore ? includes.get(key) :
+                ((previous == null) ? null : previous.getInclude(key));
+        if (found == null) {
+            return null;
+        }
+
+        // Expand the include again if it is part of a cycle, to report the cycle.
+        for (final String source : found.getSources()) {
+            if (included.contains(source)) {
+                return null;
+            }
+        }
+        if (!expandedBefore) {
+            for (final String source : found.getSources()) {
+                if (!isUnchanged(source)) {
+                    return null;
+                }
+            }
+            LOG.debug("findInclude: include not changed, include={}", include);
+            ++nrReusedIncludes;
+            includes.put(key, found);
+        }
+        addSources(found.getSources());
+        return (List<T>) found.getChildren();
+    }
+
+    /**
+     * Find the expanded contents of an include, which was just read with {@link #read(String)}, by the
+     * content of its document: if a document with the same content was included as the same type before,
+     * during this load, or during the previous load and none of the documents it includes changed since.
+     * The documents it includes are added to the sources of the include.
+     *
+     * @param <T>      Type of included objects.
+     * @param type     Type of the included object(s).
+     * @param include  URI of the include.
+     * @param included List of files included so far (for cycle detection), including the include itself.
+     * @return Expanded contents, or null if the include needs to be parsed and expanded.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    <T extends SupportsInclude> List<T> findIncludeWithContent(
+            @Nonnull final JavaType type,
+            @Nonnull final String include,
+            @Nonnull final List<String> included) {
+        final Source version = versions.get(include);
+        if (version == null) {
+            return null;
+        }
+        final String contentKey = IncludeGraph.createContentKey(type, version.getContentHash());
+        final boolean expandedBefore = contentIncludes.containsKey(contentKey);
+        final Include found = expandedBefore ? contentIncludes.get(contentKey) :
+                ((previous == null) ? null : previous.getContentInclude(contentKey));
+        if (found == null) {
+            return null;
+        }
+
+        // The documents included by the document, not the document itself.
+        final Set<String> includedSources = new LinkedHashSet<>(found.getSources());
+        includedSources.remove(found.getUri());
+
+        // Expand the include again if it is part of a cycle, to report the cycle.
+        for (final String source : includedSources) {
+            if (included.contains(source)) {
+                return null;
+            }
+        }
+        if (!expandedBefore) {
+            for (final String source : includedSources) {
+                if (!isUnchanged(source)) {
+                    return null;
+                }
+            }
+        }
+        LOG.debug("findIncludeWithContent: same content included before, include={}, before={}", include, found.getUri());
+        ++nrSharedIncludes;
+        addSources(includedSources);
+        return (List<T>) found.getChildren();
+    }
+
+    /**
+     * Start expanding an include, which is read with {@link #read(String)}.
+     */
+    void startInclude() {
+        openIncludes.push(new HashSet<>());
+    }
+
+    /**
+     * Finish expanding an include.
+     *
+     * @param type     Type of the included object(s).
+     * @param include  URI of the include.
+     * @param children Expanded contents of the include.
+     */
+    void endInclude(
+            @Nonnull final JavaType type,
+            @Nonnull final String include,
+            @Nonnull final List<? extends SupportsInclude> children) {
+        final Include expanded = new Include(include, children, openIncludes.pop());
+        includes.put(IncludeGraph.createKey(type, include), expanded);
+        final Source version = versions.get(include);
+        if (version != null) {
+            contentIncludes.putIfAbsent(IncludeGraph.createContentKey(type, version.getContentHash()), expanded);
+        }
+    }
+
+    /**
+     * Get the NodeDTOs which were the contents of includes. These are the NodeDTOs which may be reused
+     * by the next load.
+     *
+     * @return NodeDTOs.
+     */
+    @Nonnull
+    List<NodeDTO> getIncludedNodeDTOs() {
+        final List<NodeDTO> nodeDTOs = new ArrayList<>();
+        for (final Include include : includes.values()) {
+            for (final SupportsInclude child : include.getChildren()) {
+                if (child instanceof NodeDTO) {
+                    nodeDTOs.add((NodeDTO) child);
+                }
+            }
+        }
+        return nodeDTOs;
+    }
+
+    /**
+     * Return the number of includes which were taken from the previous load.
+     *
+     * @return Number of includes.
+     */
+    int getNrReusedIncludes() {
+        return nrReusedIncludes;
+    }
+
+    /**
+     * Return the number of includes of which the expanded contents were shared with another include
+     * with the same content.
+     *
+     * @return Number of includes.
+     */
+    int getNrSharedIncludes() {
+        return nrSharedIncludes;
+    }
+
+    /**
+     * Create the include graph of this load, for the next load.
+     *
+     * @param nodeCache Nodes created for this load.
+     * @return Include graph.
+     */
+    @Nonnull
+    IncludeGraph createIncludeGraph(@Nonnull final NodeCache nodeCache) {
+        return new IncludeGraph(versions, includes, contentIncludes, nodeCache);
+    }
+
+    /**
+     * Return whether a document is unchanged since the previous load.
+     *
+     * @param uri URI of the document.
+     * @return True if the document is unchanged.
+     */
+    private boolean isUnchanged(@Nonnull final String uri) {
+        final Source previousSource = (previous == null) ? null : previous.getSource(uri);
+        if (previousSource == null) {
+            return false;
+        }
+        if (!versions.containsKey(uri)) {
+            final String stamp = HttpSourceCache.isHttp(uri) ? httpSourceCache.requestStamp(uri) : createFileStamp(uri);
+            if (uri.startsWith("classpath:") || ((stamp != null) && stamp.equals(previousSource.getStamp()))) {
+                versions.put(uri, previousSource);
+                return true;
+            }
+
+            // Compare the content.
+            try {
+                final Document document = readDocument(uri);
+                versions.put(uri, document.source);
+                contents.put(uri, document.content);
+            } catch (final IncorrectConfigurationException ignored) {
+
+                // Let reading the include report the problem.
+                return false;
+            }
+        }
+        return versions.get(uri).getContentHash().equals(previousSource.getContentHash());
+    }
+
+    private void addSources(@Nonnull final Collection<String> uris) {
+        sources.addAll(uris);
+        for (final Set<String> openInclude : openIncludes) {
+            openInclude.addAll(uris);
+        }
+    }
+
+    @Nonnull
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger nrThreads = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(NR_READ_THREADS, runnable -> {
+                final Thread thread = new Thread(runnable, "configuration-reader-" + nrThreads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Read a document and determine its version. This method may be called concurrently.
+     *
+     * @param uri URI of the document.
+     * @return Document.
+     * @throws IncorrectConfigurationException If the document cannot be read.
+     */
+    @Nonnull
+    private Document readDocument(@Nonnull final String uri) throws IncorrectConfigurationException {
+        final String fileStamp = createFileStamp(uri);
+        final ByteBuffer content = readContent(uri);
+        final String stamp = HttpSourceCache.isHttp(uri) ? httpSourceCache.getStamp(uri) : fileStamp;
+        return new Document(content, new Source(stamp, createContentHash(content)));
+    }
+
+    /**
+     * Create the hash of the content of a document.
+     *
+     * @param content Content.
+     * @return SHA-1 hash, as a hexadecimal string.
+     */
+    @Nonnull
+    private static String createContentHash(@Nonnull final ByteBuffer content) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(content.duplicate());
+            return BaseEncoding.base16().lowerCase().encode(digest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported", e);
+        }
+    }
+
+    /**
+     * Create the stamp of a file: its modification time and size, if it was not modified very recently.
+     *
+     * @param uri URI of the document.
+     * @return Stamp, or null if the document has no reliable stamp.
+     */
+    @Nullable
+    private static String createFileStamp(@Nonnull final String uri) {
+        final String filename = getFilename(uri);
+        if (filename == null) {
+            return null;
+        }
+        try {
+            final Path path = Paths.get(filename);
+            final long lastModified = Files.getLastModifiedTime(path).toMillis();
+            if ((System.currentTimeMillis() - lastModified) < RACY_MILLIS) {
+                return null;
+            }
+            return lastModified + ":" + Files.size(path);
+        } catch (final IOException | InvalidPathException ignored) {
+            return null;
+        }
+    }
+
+    @Nonnull
+    private ByteBuffer readContent(@Nonnull final String uri) throws IncorrectConfigurationException {
+        if (HttpSourceCache.isHttp(uri)) {
+            return httpSourceCache.read(uri);
+        }
+
+        final String filename = getFilename(uri);
+        if (filename != null) {
+            LOG.debug("readContent: read file={}", filename);
+            return readFile(uri, filename);
+
+        } else if (uri.startsWith("classpath:")) {
+            final String resource = uri.replaceFirst("classpath::?", "");
+            LOG.debug("readContent: read from classpath={}", resource);
+            final URL url = SourceReader.class.getClassLoader().getResource(resource);
+            if (url == null) {
+                throw new IncorrectConfigurationException("File not found on classpath: uri=" + uri);
+            }
+            try {
+                final URLConnection connection = url.openConnection();
+                connection.setUseCaches(false);
+                return readBytes(uri, connection.getInputStream(), connection.getContentLengthLong());
+            } catch (final IOException e) {
+                throw new IncorrectConfigurationException("File cannot be read from classpath: uri=" + uri +
+                        ", message=" + e.getMessage());
+            }
+
+        } else {
+            throw new IncorrectConfigurationException("Unknown protocol, must specify 'http:', 'https:', 'file:', or 'classpath:'.");
+        }
+    }
+
+    /**
+     * Read a file. Large files are memory-mapped.
+     *
+     * @param uri      URI of the file, for error messages.
+     * @param filename File name.
+     * @return Content of the file.
+     * @throws IncorrectConfigurationException If the file cannot be read.
+     */
+    @Nonnull
+    static ByteBuffer readFile(
+            @Nonnull final String uri,
+            @Nonnull final String filename) throws IncorrectConfigurationException {
+        try {
+            final Path path = Paths.get(filename);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                final long size = channel.size();
+                if (size >= MAP_THRESHOLD) {
+                    LOG.debug("readFile: map file={}, size={}", filename, size);
+                    return channel.map(MapMode.READ_ONLY, 0, size);
+                }
+            }
+            return ByteBuffer.wrap(Files.readAllBytes(path));
+        } catch (final IOException | InvalidPathException e) {
+            LOG.warn("readFile: {}, message={}", uri, e.getMessage());
+            throw new IncorrectConfigurationException("Cannot read configuration, url=" + uri + ", exception=" + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the URIs which were read so far.
+     *
+     * @return URIs, in the order they were read.
+     */
+    @Nonnull
+    Set<String> getSources() {
+        return sources;
+    }
+
+    /**
+     * Return the file name of a 'file:' URI.
+     *
+     * @param uri URI, which may be prefixed file:.
+     * @return File name, or null if the URI is not a 'file:' URI.
+     */
+    @Nullable
+    static String getFilename(@Nonnull final String uri) {
+        if (!uri.startsWith("file:")) {
+            return null;
+        }
+        return uri.replaceFirst("file::?", "");
+    }
+
+    /**
+     * Read all bytes from an input stream and close it. If the size of the input is known, the bytes are
+     * read straight into a buffer of that size, so the input is not copied once more.
+     *
+     * @param uri          URI the input stream reads from, for error messages.
+     * @param inputStream  Input stream.
+     * @param expectedSize Expected number of bytes, or -1 if unknown.
+     * @return Bytes read, from the position to the limit of the buffer.
+     * @throws IncorrectConfigurationException If the input cannot be read.
+     */
+    @Nonnull
+    static ByteBuffer readBytes(
+            @Nonnull final String uri,
+            @Nonnull final InputStream inputStream,
+            final long expectedSize) throws IncorrectConfigurationException {
+        byte[] bytes = new byte[((expectedSize >= 0) && (expectedSize < MAX_ARRAY_SIZE)) ? (int) expectedSize : BUFFER_SIZE];
+        int size = 0;
+        try {
+            //noinspection NestedTryStatement
+            try (InputStream input = inputStream) {
+                while (true) {
+                    if (size == bytes.length) {
+
+                        // Check for the end of the input before growing the buffer, as the size may be exact.
+                        final int next = input.read();
+                        if (next < 0) {
+                            break;
+                        }
+                        if (bytes.length >= MAX_ARRAY_SIZE) {
+                            throw new IOException("Document too large");
+                        }
+                        bytes = Arrays.copyOf(bytes, (int) Math.min(MAX_ARRAY_SIZE, Math.max(BUFFER_SIZE, 2L * bytes.length)));
+                        bytes[size] = (byte) next;
+                        ++size;
+                    }
+                    final int nrBytes = input.read(bytes, size, bytes.length - size);
+                    if (nrBytes < 0) {
+                        break;
+                    }
+                    size += nrBytes;
+                }
+            }
+        } catch (final IOException e) {
+            throw new IncorrectConfigurationException("readBytes: Could not read configuration, uri=" + uri +
+                    ", message=" + e.getMessage());
+        }
+        return ByteBuffer.wrap(bytes, 0, size);
+    }
+
+    @Immutable
+    private static final class Document {
+        @Nonnull
+        private final ByteBuffer content;
+        @Nonnull
+        private final Source source;
+
+        private Document(@Nonnull final ByteBuffer content, @Nonnull final Source source) {
+            this.content = content;
+            this.source = source;
+        }
+    }
+
+    @Immutable
+    private static final class Prefetched {
+        @Nonnull
+        private final String uri;
+        @Nonnull
+        private final Document document;
+        @Nonnull
+        private final Object parsed;
+
+        private Prefetched(@Nonnull final String uri, @Nonnull final Document document, @Nonnull final Object parsed) {
+            this.uri = uri;
+            this.document = document;
+            this.parsed = parsed;
+        }
+    }
+}
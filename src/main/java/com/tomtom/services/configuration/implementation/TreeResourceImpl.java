@@ -17,9 +17,6 @@
 package com.tomtom.services.configuration.implementation;
 
 import akka.dispatch.Futures;
-import com.google.common.base.Splitter;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.tomtom.services.configuration.TreeResource;
 import com.tomtom.services.configuration.domain.Node;
 import com.tomtom.services.configuration.dto.NodeDTO;
@@ -27,11 +24,7 @@ import com.tomtom.services.configuration.dto.SearchResultDTO;
 import com.tomtom.services.configuration.dto.SearchResultsDTO;
 import com.tomtom.speedtools.apivalidation.exceptions.ApiForbiddenException;
 import com.tomtom.speedtools.apivalidation.exceptions.ApiNotFoundException;
-import com.tomtom.speedtools.apivalidation.exceptions.ApiParameterSyntaxException;
 import com.tomtom.speedtools.checksums.SHA1Hash;
-import com.tomtom.speedtools.json.Json;
-import com.tomtom.speedtools.rest.ResourceProcessor;
-import com.tomtom.speedtools.time.UTCTime;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,15 +37,6 @@ import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * This class implements the /parameter resource.
@@ -73,25 +57,19 @@ public class TreeResourceImpl implements TreeResource {
     private final Configuration configuration;
 
     /**
-     * The scalable web resources processor.
+     * The executor of the request handlers, see {@link RequestExecutor}.
      */
     @Nonnull
-    private final ResourceProcessor processor;
-
-    /**
-     * The data/time format used by the HTTP header If-Modified-Since.
-     */
-    @Nonnull
-    private final SimpleDateFormat formatIfModifiedSince = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    private final RequestExecutor executor;
 
     @Inject
     public TreeResourceImpl(
             @Nonnull final Configuration configuration,
-            @Nonnull final ResourceProcessor processor) {
+            @Nonnull final RequestExecutor executor) {
 
         // Store the injected values.
         this.configuration = configuration;
-        this.processor = processor;
+        this.executor = executor;
     }
 
     @Override
@@ -108,60 +86,17 @@ public class TreeResourceImpl implements TreeResource {
             return;
         }
 
-        processor.process("findBestMatch", LOG, response, () -> {
+        executor.process("findBestMatch", LOG, response, () -> {
             LOG.info("findBestMatch: query={}, if-modified-since={}, if-none-match={}", queryParameters.keySet(), ifModifiedSince, ifNoneMatch);
 
-            // Get all parameter names (which are the level names).
-            final Set<String> levelNames = queryParameters.keySet();
-
-            // Determine how many searches are specified.
-            int nrOfSearches = 0;
-            for (final String levelName : levelNames) {
-                final Iterable<String> terms = Splitter.on(SEPARATOR_QUERY).trimResults().split(queryParameters.getFirst(levelName));
-                nrOfSearches = Math.max(nrOfSearches, Iterables.size(terms));
-            }
-
-            // Now create a full set of search maps with (level-name: search-term).
-            final List<Map<String, String>> levelSearchTermsList = new ArrayList<>();
-            for (int i = 0; i < nrOfSearches; ++i) {
-                final Map<String, String> levelSearchTerms = new HashMap<>();
-                for (final String levelName : levelNames) {
-                    final String searchTerm;
-                    final List<String> terms = Lists.newArrayList(Splitter.on(SEPARATOR_QUERY).trimResults().split(queryParameters.getFirst(levelName)));
-                    if (terms.isEmpty()) {
-
-                        // If no terms are supplied for this level, provide an empty search term.
-                        searchTerm = "";
-                    } else {
-
-                        if (terms.size() > i) {
-
-                            // If a search terms is available at this level, use it.
-                            searchTerm = terms.get(i);
-                        } else {
-
-                            // If not, re-use the last value.
-                            searchTerm = terms.get(terms.size() - 1);
-                        }
-                    }
-
-                    // Update last used search term and add to map of (level-name, search-term).
-                    levelSearchTerms.put(levelName, searchTerm);
-                    if (searchTerm.indexOf(SEPARATOR_WRONG) >= 0) {
-                        throw new ApiParameterSyntaxException(levelName, searchTerm, "Search terms cannot contain '" + SEPARATOR_WRONG + "'.");
-                    }
-                }
-                assert levelSearchTerms.size() == levelNames.size();
-
-                // Add the search to the list of searches.
-                levelSearchTermsList.add(levelSearchTerms);
-            }
-            assert levelSearchTermsList.size() == nrOfSearches;
+            // Parse the search terms once, ordered by the levels of the tree. Use the same snapshot of the tree throughout the request.
+            final ConfigurationSnapshot snapshot = configuration.getSnapshot();
+            final SearchQuery query = SearchQuery.parse(queryParameters, snapshot.getRoot().getLevels());
 
             // First try and find the response.
-            final SearchResultsDTO foundResults = configuration.matchNode(levelSearchTermsList);
+            final SearchResultsDTO foundResults = snapshot.matchNode(query);
             if (foundResults.isEmpty()) {
-                throw new ApiNotFoundException("No result found: query=" + levelSearchTermsList);
+                throw new ApiNotFoundException("No result found: query=" + query);
             }
 
             // Check if the ETag matches (make sure we remove the "--gzip" suffix from the ETag).
@@ -200,22 +135,13 @@ public class TreeResourceImpl implements TreeResource {
                 return Futures.successful(null);
             }
 
-            if (foundResults.size() == 1) {
-                final SearchResultDTO entity = foundResults.get(0);
-                entity.validate();
-                LOG.debug("findBestMatch: OK, entity={}", entity);
-                response.resume(Response.status(Status.OK).entity(entity).
-                        tag(eTag).
-                        lastModified((lastModified == null) ? null : lastModified.toDate()).
-                        build());
-            } else {
-                foundResults.validate();
-                LOG.debug("findBestMatch: OK, found={}", foundResults);
-                response.resume(Response.status(Status.OK).entity(foundResults).
-                        tag(eTag).
-                        lastModified((lastModified == null) ? null : lastModified.toDate()).
-                        build());
-            }
+            // Write the pre-serialized search results, with the 'searched' values filled in.
+            final SearchResultsBody entity = new SearchResultsBody(foundResults, snapshot.getSearchResultBodies());
+            LOG.debug("findBestMatch: OK, found={}", entity);
+            response.resume(Response.status(Status.OK).entity(entity).
+                    tag(eTag).
+                    lastModified((lastModified == null) ? null : lastModified.toDate()).
+                    build());
 
             return Futures.successful(null);
         });
@@ -232,7 +158,7 @@ public class TreeResourceImpl implements TreeResource {
         // Keep URI parameters.
         final MultivaluedMap<String, String> queryParameters = uriInfo.getQueryParameters();
 
-        processor.process("getNode", LOG, response, () -> {
+        executor.process("getNode", LOG, response, () -> {
             LOG.info("getNode: fullNodePath={}, if-modified-since={}, if-none-match={}", fullNodePath, ifModifiedSince, ifNoneMatch);
 
             // Make sure no search parameters are specified.
@@ -241,13 +167,13 @@ public class TreeResourceImpl implements TreeResource {
             }
 
             // First, try and get the node from the tree.
-            final Node resultNode = configuration.findNode(fullNodePath);
+            final Node resultNode = configuration.getSnapshot().findNode(fullNodePath);
             if (resultNode == null) {
                 throw new ApiNotFoundException("Path not found: fullNodePath=" + fullNodePath);
             }
 
             // Check if the ETag matches.
-            final String eTag = calculateETag(resultNode);
+            final String eTag = calculateETag(resultNode.getContentHash());
             final boolean eTagMatches = (ifNoneMatch != null) && ifNoneMatch.equalsIgnoreCase(eTag);
             LOG.debug("getNode: etag='{}', matches={}", eTag, eTagMatches);
 
@@ -277,16 +203,33 @@ public class TreeResourceImpl implements TreeResource {
     }
 
     /**
-     * Create an ETag value for an object. Not quoted.
+     * Create an ETag value for a list of search results. Not quoted. The ETag is derived from the
+     * precomputed result hashes of the matched nodes and the search terms, so the results do not
+     * need to be serialized to calculate it.
+     *
+     * @param searchResults Search results to create an ETag for.
+     * @return ETag string (not quoted).
+     */
+    @Nonnull
+    static String calculateETag(@Nonnull final SearchResultsDTO searchResults) {
+        final StringBuilder sb = new StringBuilder();
+        for (final SearchResultDTO searchResult : searchResults) {
+            final String searched = searchResult.getSearched();
+            sb.append(searchResult.getNode().getResultHash()).
+                    append((searched == null) ? 0 : searched.length()).append(':').append(searched);
+        }
+        return calculateETag(sb.toString());
+    }
+
+    /**
+     * Create an ETag value for a precomputed hash. Not quoted.
      *
-     * @param object Object to create an ETag for.
+     * @param hash Hash to create an ETag for.
      * @return ETag string (not quoted).
      */
     @Nonnull
-    private static String calculateETag(@Nonnull final Object object) {
-        final String json = Json.toJson(object);
-        final SHA1Hash hash = SHA1Hash.saltedHash(json, HASH_SALT);
-        return hash.toString();
+    private static String calculateETag(@Nonnull final String hash) {
+        return SHA1Hash.saltedHash(hash, HASH_SALT).toString();
     }
 
     /**
@@ -315,7 +258,7 @@ public class TreeResourceImpl implements TreeResource {
      * @param ifModifiedSince HTTP header parameter.
      * @return Return true if configuration changed on or after ifModifiedSince.
      */
-    private boolean isModifiedSince(
+    private static boolean isModifiedSince(
             @Nullable final DateTime modified,
             @Nullable final String ifModifiedSince) {
 
@@ -325,24 +268,17 @@ public class TreeResourceImpl implements TreeResource {
             if (ifModifiedSince == null) {
                 return true;
             } else {
-                try {
-                    final Date date;
-
-                    // SimpleDateFormat is not thread-safe.
-                    synchronized (formatIfModifiedSince) {
-                        date = formatIfModifiedSince.parse(ifModifiedSince);
-                    }
-                    final DateTime ifModfiedSinceDateTime = UTCTime.from(date);
-                    final boolean isModified = modified.isAfter(ifModfiedSinceDateTime) || modified.isEqual(ifModfiedSinceDateTime);
-                    LOG.debug("isModifiedSince: isModified={}, If-Modified-Since={} <= {}",
-                            isModified, ifModfiedSinceDateTime, modified);
-                    return isModified;
-                } catch (final ParseException ignored) {
+                final DateTime ifModifiedSinceDateTime = HttpDateParser.parse(ifModifiedSince);
+                if (ifModifiedSinceDateTime == null) {
 
                     // Provided header was incorrectly formatted, err on the safe side.
                     LOG.info("isModifiedSince: incorrectly formatted If-Modified-Since={}", ifModifiedSince);
                     return true;
                 }
+                final boolean isModified = modified.isAfter(ifModifiedSinceDateTime) || modified.isEqual(ifModifiedSinceDateTime);
+                LOG.debug("isModifiedSince: isModified={}, If-Modified-Since={} <= {}",
+                        isModified, ifModifiedSinceDateTime, modified);
+                return isModified;
             }
         }
     }
@@ -16,7 +16,11 @@
 
 package com.tomtom.services.configuration.domain;
 
+import com.tomtom.services.configuration.dto.NodeDTO;
 import com.tomtom.speedtools.objects.Immutables;
+import com.tomtom.speedtools.time.UTCTime;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,4 +62,87 @@ public class NodeTest {
         assertEquals("1", x.getParameters().iterator().next().getKey());
         assertEquals("{\"match\":\"x\",\"nodes\":[{\"match\":\"y\"}],\"parameters\":[{\"key\":\"1\",\"value\":\"2\"}]}", x.toString());
     }
+
+    @Test
+    public void testNodePatterns() {
+        LOG.info("testNodePatterns");
+        final Node x = new Node("device1.*");
+        assertFalse(x.isLiteral());
+        assertNotNull(x.getPattern());
+        assertTrue(x.getPattern().matcher("DEVICE123").matches());
+
+        final Node y = new Node("device123");
+        assertTrue(y.isLiteral());
+        assertTrue(y.getPattern().matcher("DEVICE123").matches());
+
+        final Node root = new Node(null, null, null, null, null, null);
+        assertFalse(root.isLiteral());
+        assertNull(root.getPattern());
+    }
+
+    @Test
+    public void testFindLiteralNode() {
+        LOG.info("testFindLiteralNode");
+        final Node first = new Node("Device123");
+        final Node second = new Node("device123");
+        final Node regex = new Node("device1.*");
+        final Node x = new Node("x", Immutables.listOf(regex, first, second), null, null, null, null);
+        assertSame(first, x.findLiteralNode("DEVICE123"));
+        assertSame(regex, x.findLiteralNode("device1.*"));
+        assertNull(x.findLiteralNode("device1"));
+        assertNull(regex.findLiteralNode("x"));
+        assertEquals(Immutables.listOf(regex), x.getRegexNodes());
+        assertEquals("\u00e9a", Node.foldCase("\u00e9A"));
+    }
+
+    @Test
+    public void testMatched() {
+        LOG.info("testMatched");
+        final NodeDTO device = new NodeDTO("device1.*", null, null, null, null, null, null);
+        final NodeDTO model = new NodeDTO("luxuri", Immutables.listOf(device), null, null, null, null, null);
+        final NodeDTO service = new NodeDTO("traffic", Immutables.listOf(model), null, null, null, null, null);
+        final NodeDTO rootDTO = new NodeDTO(null, Immutables.listOf(service), null, null,
+                Immutables.listOf("service", "model", "device"), null, null);
+        final Node root = new Node(rootDTO, null);
+        assertEquals(-1, root.getLevelIndex());
+        assertEquals("", root.getMatched());
+
+        final Node x = root.getNodes().iterator().next();
+        assertEquals(0, x.getLevelIndex());
+        assertEquals("service=traffic", x.getMatched());
+
+        final Node y = x.getNodes().iterator().next().getNodes().iterator().next();
+        assertEquals(2, y.getLevelIndex());
+        assertEquals("service=traffic&model=luxuri&device=device1.*", y.getMatched());
+
+        assertEquals("", new Node("x").getMatched());
+    }
+
+    @Test
+    public void testHashesAndModified() {
+        LOG.info("testHashesAndModified");
+        final DateTime modified = UTCTime.now();
+        final Node a = new Node("a", null, Immutables.listOf(new Parameter("k", "v")), null, null, null);
+        final Node b = new Node("a", null, Immutables.listOf(new Parameter("k", "v")), null, null, null);
+        final Node c = new Node("a", null, Immutables.listOf(new Parameter("k", "w")), null, null, null);
+        final Node d = new Node("a", null, Immutables.listOf(new Parameter("k", "v")), modified, null, null);
+        assertEquals(a.getContentHash(), b.getContentHash());
+        assertNotEquals(a.getContentHash(), c.getContentHash());
+        assertNotEquals(a.getContentHash(), d.getContentHash());
+        assertEquals(a.getResultHash(), d.getResultHash());
+        assertNotEquals(a.getResultHash(), c.getResultHash());
+
+        final NodeDTO child = new NodeDTO("child", null, null, null, null, null, null);
+        final NodeDTO parent = new NodeDTO("parent", Immutables.listOf(child), null,
+                ISODateTimeFormat.dateTimeNoMillis().print(modified), null, null, null);
+        final NodeDTO rootDTO = new NodeDTO(null, Immutables.listOf(parent), null, null, null, null, null);
+        final Node root = new Node(rootDTO, null);
+        assertNull(root.searchModifiedUpToRoot());
+        final Node x = root.getNodes().iterator().next();
+        final Node y = x.getNodes().iterator().next();
+        assertEquals(x.getModified(), x.searchModifiedUpToRoot());
+        assertEquals(x.getModified(), y.searchModifiedUpToRoot());
+        assertNotEquals(x.getContentHash(), root.getContentHash());
+        assertEquals(root.getContentHash(), new Node(rootDTO, null).getContentHash());
+    }
 }
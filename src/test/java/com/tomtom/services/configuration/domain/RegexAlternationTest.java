@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.tomtom.speedtools.objects.Immutables;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class RegexAlternationTest {
+    private static final Logger LOG = LoggerFactory.getLogger(RegexAlternationTest.class);
+
+    @Test
+    public void testFirstMatchWins() {
+        LOG.info("testFirstMatchWins");
+        final RegexAlternation x = RegexAlternation.create(Immutables.listOf(
+                new Node("(a)(b)c.*"), new Node("ab.*"), new Node("(?-i)X.*"), new Node(".*")));
+        assertNotNull(x);
+        assertEquals(0, x.indexOfFirstMatch("ABCD"));
+        assertEquals(1, x.indexOfFirstMatch("abd"));
+        assertEquals(2, x.indexOfFirstMatch("Xyz"));
+        assertEquals(3, x.indexOfFirstMatch("xyz"));
+        assertEquals(3, x.indexOfFirstMatch(""));
+    }
+
+    @Test
+    public void testNoMatch() {
+        LOG.info("testNoMatch");
+        final RegexAlternation x = RegexAlternation.create(Immutables.listOf(new Node("a+"), new Node("b+")));
+        assertNotNull(x);
+        assertEquals(0, x.indexOfFirstMatch("AAA"));
+        assertEquals(-1, x.indexOfFirstMatch("ab"));
+    }
+
+    @Test
+    public void testNotCombinable() {
+        LOG.info("testNotCombinable");
+        assertNull(RegexAlternation.create(null));
+        assertNull(RegexAlternation.create(Immutables.listOf(new Node("a.*"))));
+        assertNull(RegexAlternation.create(Immutables.listOf(new Node("(a)\\1"), new Node("b.*"))));
+        assertNull(RegexAlternation.create(Immutables.listOf(new Node("(?<x>a)"), new Node("b.*"))));
+        assertNotNull(RegexAlternation.create(Immutables.listOf(new Node("(?<=a)b"), new Node("\\\\1"))));
+    }
+
+    @Test
+    public void testFindRegexNodeFallback() {
+        LOG.info("testFindRegexNodeFallback");
+        final Node first = new Node("(a)\\1.*");
+        final Node second = new Node("a.*");
+        final Node x = new Node("x", Immutables.listOf(first, second), null, null, null, null);
+        assertSame(first, x.findRegexNode("AAB"));
+        assertSame(second, x.findRegexNode("ab"));
+        assertNull(x.findRegexNode("b"));
+    }
+}
@@ -33,7 +33,7 @@ public class ApiFindBestMatchTest {
 
     private final LocalTestServer server = new LocalTestServer("classpath:example.json");
 
-    static final String HASH = "\"0e54b7591e3059b0ef7b1a4d9de263081997dd69\"";
+    static final String HASH = "\"7fc9d93589a4d4634567bff2bf5859bfdf2e24e9\"";
 
     @Before
     public void startServer() throws IncorrectConfigurationException {
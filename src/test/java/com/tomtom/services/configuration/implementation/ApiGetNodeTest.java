@@ -35,7 +35,7 @@ public class ApiGetNodeTest {
 
     private final LocalTestServer server = new LocalTestServer("classpath:example.json");
 
-    static final String HASH = "\"c5072e7f10f980f06ed99d6f64483bc439968afa\"";
+    static final String HASH = "\"86edc0e5be62a0f096cc4dd4e32acf0fdeb68c31\"";
 
     @Before
     public void startServer() throws IncorrectConfigurationException {
@@ -58,6 +58,19 @@ public class ApiHelperMethodsTest {
         Assert.assertEquals(200, status);
     }
 
+    @Test
+    public void checkResultCache() {
+        LOG.info("checkResultCache");
+        final Response r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/cache").
+                request().
+                accept(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertNotNull(r);
+        Assert.assertEquals(200, r.getStatus());
+        Assert.assertEquals("{\"maximumSize\":10000,\"size\":0,\"hitCount\":0,\"missCount\":0,\"evictionCount\":0}",
+                r.readEntity(String.class));
+    }
+
     @Test
     public void checkStatusOK() {
         LOG.info("checkStatusOK");
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.SearchResultsDTO;
+import org.jboss.resteasy.spi.ResteasyUriInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of searching the tree and calculating ETags, for trees of different shapes, from 10k to
+ * 1M nodes, see {@link TreeGenerator}, and of loading these trees at startup. The result cache is disabled by default, so every query searches
+ * the tree. Only warnings are logged, see "log4j-benchmark.properties". Add JMH option "-prof gc" to
+ * report the bytes allocated per operation.
+ * Run with: {@code mvn test -Pbenchmark -Dbenchmark=ConfigurationBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dlog4j.configuration=log4j-benchmark.properties"})
+public class ConfigurationBenchmark {
+
+    private static final int NR_WORKLOAD_QUERIES = 1024;
+
+    @Param({"100x100", "10x100x100", "10x10x100x100", "4x4x4x4x4x4x4x4"})
+    public String shape;
+
+    @Param("0")
+    public int resultCacheSize;
+
+    @Param("1.0")
+    public double skew;
+
+    private Configuration configuration;
+    private List<Map<String, String>> literalQuery;
+    private List<Map<String, String>> regexQuery;
+    private List<Map<String, String>> missingQuery;
+    private List<Map<String, String>> multiQuery;
+    private MultivaluedMap<String, String> multiQueryParameters;
+    private String path;
+    private SearchResultsDTO multiResults;
+    private List<List<Map<String, String>>> workload;
+    private int workloadIndex;
+    private Path directory;
+    private ConfigurationServiceProperties jsonProperties;
+    private ConfigurationServiceProperties snapshotProperties;
+    private ByteBuffer snapshot;
+
+    @Setup
+    public void setup() throws IOException, IncorrectConfigurationException {
+        final TreeGenerator generator = TreeGenerator.of(shape);
+        directory = Files.createTempDirectory("benchmark");
+        configuration = generator.createConfiguration(directory, resultCacheSize);
+        literalQuery = Collections.singletonList(generator.createLiteralQuery());
+        regexQuery = Collections.singletonList(generator.createRegexQuery());
+        missingQuery = Collections.singletonList(generator.createMissingQuery());
+        multiQuery = generator.createQueries(4, skew, 0.0);
+        path = generator.createLiteralPath();
+        multiResults = configuration.matchNode(multiQuery);
+        multiQueryParameters = new ResteasyUriInfo(URI.create("http://localhost/tree?" + toQueryString(multiQuery))).getQueryParameters();
+        workload = new ArrayList<>();
+        for (final Map<String, String> query : generator.createQueries(NR_WORKLOAD_QUERIES, skew, 0.05)) {
+            workload.add(Collections.singletonList(query));
+        }
+        assert !configuration.matchNode(literalQuery).isEmpty();
+        assert !configuration.matchNode(regexQuery).isEmpty();
+        assert configuration.findNode(path) != null;
+
+        final Path snapshotFile = directory.resolve("root.snapshot").toAbsolutePath();
+        SnapshotFile.write(configuration.getRoot(), snapshotFile);
+        snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+        jsonProperties = new ConfigurationServiceProperties("file:" + directory.resolve("root.json").toAbsolutePath(), resultCacheSize);
+        snapshotProperties = new ConfigurationServiceProperties("file:" + snapshotFile, resultCacheSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public SearchResultsDTO matchLiteral() {
+        return configuration.matchNode(literalQuery);
+    }
+
+    @Benchmark
+    public SearchResultsDTO matchRegex() {
+        return configuration.matchNode(regexQuery);
+    }
+
+    @Benchmark
+    public SearchResultsDTO matchMissing() {
+        return configuration.matchNode(missingQuery);
+    }
+
+    @Benchmark
+    public SearchResultsDTO matchMultiQuery() {
+        return configuration.matchNode(multiQuery);
+    }
+
+    /**
+     * Single queries of a skewed workload, see {@link TreeGenerator#createQueries(int, double, double)}.
+     *
+     * @return Search results.
+     */
+    @Benchmark
+    public SearchResultsDTO matchWorkload() {
+        workloadIndex = (workloadIndex + 1) % NR_WORKLOAD_QUERIES;
+        return configuration.matchNode(workload.get(workloadIndex));
+    }
+
+    /**
+     * Parse the query parameters of {@link #matchMultiQuery()}, as done for every request.
+     *
+     * @return Search query.
+     */
+    @Benchmark
+    public SearchQuery parseQuery() {
+        return SearchQuery.parse(multiQueryParameters, configuration.getRoot().getLevels());
+    }
+
+    @Benchmark
+    public SearchResultsDTO parseAndMatchQuery() {
+        final ConfigurationSnapshot snapshot = configuration.getSnapshot();
+        return snapshot.matchNode(SearchQuery.parse(multiQueryParameters, snapshot.getRoot().getLevels()));
+    }
+
+    @Benchmark
+    public Node findNode() {
+        return configuration.findNode(path);
+    }
+
+    @Benchmark
+    public String calculateETag() {
+        return TreeResourceImpl.calculateETag(multiResults);
+    }
+
+    /**
+     * Load the configuration at startup: read, parse, expand and check the JSON files and build the tree.
+     *
+     * @return Configuration.
+     * @throws IncorrectConfigurationException If the configuration is incorrect.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Configuration loadJson() throws IncorrectConfigurationException {
+        return new Configuration(jsonProperties);
+    }
+
+    /**
+     * Load the configuration at startup from a compiled snapshot: read the snapshot and build the tree.
+     *
+     * @return Configuration.
+     * @throws IncorrectConfigurationException If the configuration is incorrect.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Configuration loadSnapshot() throws IncorrectConfigurationException {
+        return new Configuration(snapshotProperties);
+    }
+
+    /**
+     * Only decode a compiled snapshot, without building the tree, to compare with {@link #loadSnapshot()}.
+     *
+     * @return Root of the tree.
+     * @throws IncorrectConfigurationException If the snapshot is incorrect.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public NodeDTO readSnapshot() throws IncorrectConfigurationException {
+        return SnapshotFile.read(snapshot);
+    }
+
+    /**
+     * Create the query string of a set of searches, with the search terms of every level separated by
+     * commas.
+     *
+     * @param searches Searches.
+     * @return Query string, without '?'.
+     */
+    @Nonnull
+    private static String toQueryString(@Nonnull final List<Map<String, String>> searches) {
+        final Map<String, StringBuilder> levels = new LinkedHashMap<>();
+        for (final Map<String, String> search : searches) {
+            for (final Map.Entry<String, String> term : search.entrySet()) {
+                final StringBuilder terms = levels.computeIfAbsent(term.getKey(), key -> new StringBuilder());
+                terms.append((terms.length() == 0) ? "" : ",").append(term.getValue());
+            }
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (final Map.Entry<String, StringBuilder> level : levels.entrySet()) {
+            sb.append((sb.length() == 0) ? "" : "&").append(level.getKey()).append('=').append(level.getValue());
+        }
+        return sb.toString();
+    }
+}
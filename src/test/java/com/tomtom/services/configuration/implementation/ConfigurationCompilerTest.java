@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.implementation.ConfigurationCompiler.Statistics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class ConfigurationCompilerTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationCompilerTest.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompile() throws Exception {
+        LOG.info("testCompile");
+        final File snapshot = new File(folder.getRoot(), "out/example.snapshot");
+        final ByteArrayOutputStream report = new ByteArrayOutputStream();
+        assertEquals(ConfigurationCompiler.EXIT_OK, ConfigurationCompiler.run(
+                new String[]{"classpath:example.json", snapshot.getPath()}, new PrintStream(report, true, "UTF-8")));
+        final String text = new String(report.toByteArray(), UTF_8);
+        LOG.info("testCompile: report=\n{}", text);
+        assertTrue(text.contains("Depth:                3"));
+
+        // The snapshot is the same configuration.
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:example.json"));
+        final Configuration compiled = new Configuration(new ConfigurationServiceProperties("file:" + snapshot.getAbsolutePath()));
+        assertEquals(configuration.getRoot().getContentHash(), compiled.getRoot().getContentHash());
+        assertEquals(1, folder.getRoot().listFiles()[0].list().length);
+    }
+
+    @Test
+    public void testCompileIncorrect() throws Exception {
+        LOG.info("testCompileIncorrect");
+        final File snapshot = new File(folder.getRoot(), "incorrect.snapshot");
+        final PrintStream report = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+        assertEquals(ConfigurationCompiler.EXIT_INCORRECT_CONFIGURATION, ConfigurationCompiler.run(
+                new String[]{"classpath:include-recursive.json", snapshot.getPath()}, report));
+        assertFalse(snapshot.exists());
+        assertEquals(ConfigurationCompiler.EXIT_ERROR, ConfigurationCompiler.run(new String[]{"classpath:example.json"}, report));
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        LOG.info("testStatistics");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:empty.json"), "{\"levels\":[\"a\",\"b\"],\"nodes\":[" +
+                "{\"match\":\"x\",\"nodes\":[{\"match\":\"p\"},{\"match\":\"q\"},{\"match\":\"r.*\",\"parameters\":[{\"key\":\"k\",\"value\":\"v\"}]}]}," +
+                "{\"match\":\"y|z\",\"parameters\":[{\"key\":\"k\",\"value\":\"w\"}]}]}");
+        final Statistics statistics = Statistics.of(configuration.getRoot());
+        assertEquals(6, statistics.nrNodes);
+        assertEquals(2, statistics.depth);
+        assertEquals(2, statistics.nrParameters);
+        assertEquals(2, statistics.nrRegexNodes);
+        assertEquals(2, statistics.maxLiteralFanOut);
+        assertEquals(1.5, statistics.getAverageLiteralFanOut(), 0.001);
+    }
+}
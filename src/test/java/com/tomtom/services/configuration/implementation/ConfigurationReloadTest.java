@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.domain.Node;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.tomtom.speedtools.objects.Immutables.listOf;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class ConfigurationReloadTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationReloadTest.class);
+
+    private static final String CONFIG_1 = "{\"levels\":[\"service\"],\"nodes\":[{\"match\":\"traffic\",\"parameters\":[{\"key\":\"radius\",\"value\":\"1\"}]}]}";
+    private static final String CONFIG_2 = "{\"levels\":[\"service\"],\"nodes\":[{\"match\":\"traffic\",\"parameters\":[{\"key\":\"radius\",\"value\":\"2\"}]}]}";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReload() throws Exception {
+        LOG.info("testReload");
+        final File file = folder.newFile("config.json");
+        Files.write(file.toPath(), CONFIG_1.getBytes(UTF_8));
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + file.getAbsolutePath()));
+        final ConfigurationSnapshot snapshot1 = configuration.getSnapshot();
+        assertEquals("1", search(configuration));
+
+        // Same contents: keep the snapshot and its caches.
+        assertFalse(configuration.reload());
+        assertSame(snapshot1, configuration.getSnapshot());
+
+        // New contents: new snapshot, old snapshot unchanged.
+        Files.write(file.toPath(), CONFIG_2.getBytes(UTF_8));
+        assertTrue(configuration.reload());
+        assertNotSame(snapshot1, configuration.getSnapshot());
+        assertEquals("2", search(configuration));
+        assertEquals("1", snapshot1.matchNode(listOf(searchTerms())).get(0).getParameters().get(0).getValue());
+    }
+
+    @Test
+    public void testReloadIncorrect() throws Exception {
+        LOG.info("testReloadIncorrect");
+        final File file = folder.newFile("config.json");
+        Files.write(file.toPath(), CONFIG_1.getBytes(UTF_8));
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + file.getAbsolutePath()));
+        final ConfigurationSnapshot snapshot1 = configuration.getSnapshot();
+
+        // Incorrect contents: keep the current snapshot.
+        Files.write(file.toPath(), "{\"nodes\":[{\"match\":\"\"}]".getBytes(UTF_8));
+        try {
+            configuration.reload();
+            fail("Incorrect configuration should not be loaded");
+        } catch (final IncorrectConfigurationException ignored) {
+            // Expected.
+        }
+        assertSame(snapshot1, configuration.getSnapshot());
+        assertEquals("1", search(configuration));
+    }
+
+    @Test
+    public void testIncrementalReload() throws Exception {
+        LOG.info("testIncrementalReload");
+        final File traffic = folder.newFile("traffic.json");
+        final File weather = folder.newFile("weather.json");
+        final File root = folder.newFile("config.json");
+        Files.write(traffic.toPath(), service("traffic", "1").getBytes(UTF_8));
+        Files.write(weather.toPath(), service("weather", "1").getBytes(UTF_8));
+        Files.write(root.toPath(), ("{\"levels\":[\"service\",\"model\"],\"nodes\":[" +
+                "{\"include\":\"file:" + traffic.getAbsolutePath() + "\"}," +
+                "{\"include\":\"file:" + weather.getAbsolutePath() + "\"}]}").getBytes(UTF_8));
+        final Configuration configuration = new Configuration(reloading(root));
+        final Node traffic1 = configuration.findNode("traffic");
+        final Node weather1 = configuration.findNode("weather");
+        assertNotNull(traffic1);
+        assertNotNull(weather1);
+
+        // Only the changed include is rebuilt; the other subtree is shared with the previous tree.
+        Files.write(traffic.toPath(), service("traffic", "2").getBytes(UTF_8));
+        assertTrue(configuration.reload());
+        final Node traffic2 = configuration.findNode("traffic");
+        assertNotNull(traffic2);
+        assertNotSame(traffic1, traffic2);
+        assertSame(weather1, configuration.findNode("weather"));
+        assertEquals("2", traffic2.getNodes().iterator().next().getParameters().iterator().next().getValue());
+        assertEquals("service=weather&model=cheapo", configuration.findNode("weather/cheapo").getMatched());
+
+        // Renaming a level changes the paths of all nodes, so nothing is shared.
+        Files.write(root.toPath(), new String(Files.readAllBytes(root.toPath()), UTF_8).
+                replace("\"model\"", "\"type\"").getBytes(UTF_8));
+        assertTrue(configuration.reload());
+        assertNotSame(weather1, configuration.findNode("weather"));
+        assertEquals("service=weather&type=cheapo", configuration.findNode("weather/cheapo").getMatched());
+    }
+
+    @Test
+    public void testReloadWithoutIncludeGraph() throws Exception {
+        LOG.info("testReloadWithoutIncludeGraph");
+        final File traffic = folder.newFile("traffic.json");
+        final File weather = folder.newFile("weather.json");
+        final File root = folder.newFile("config.json");
+        Files.write(traffic.toPath(), service("traffic", "1").getBytes(UTF_8));
+        Files.write(weather.toPath(), service("weather", "1").getBytes(UTF_8));
+        Files.write(root.toPath(), ("{\"levels\":[\"service\",\"model\"],\"nodes\":[" +
+                "{\"include\":\"file:" + traffic.getAbsolutePath() + "\"}," +
+                "{\"include\":\"file:" + weather.getAbsolutePath() + "\"}]}").getBytes(UTF_8));
+
+        // Without periodic reloads or watched files, the include graph is not kept, so nothing is shared.
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + root.getAbsolutePath()));
+        final Node weather1 = configuration.findNode("weather");
+        assertNotNull(weather1);
+        Files.write(traffic.toPath(), service("traffic", "2").getBytes(UTF_8));
+        assertTrue(configuration.reload());
+        assertEquals("2", configuration.findNode("traffic").getNodes().iterator().next().getParameters().iterator().next().getValue());
+        assertNotSame(weather1, configuration.findNode("weather"));
+        assertEquals(weather1.getContentHash(), configuration.findNode("weather").getContentHash());
+    }
+
+    @Test
+    public void testSharedIncludeContent() throws Exception {
+        LOG.info("testSharedIncludeContent");
+        final String parameters = "[{\"key\":\"radius\",\"value\":\"1\"},{\"key\":\"speed\",\"value\":\"2\"}]";
+        final File parameters1 = folder.newFile("parameters1.json");
+        final File parameters2 = folder.newFile("parameters2.json");
+        final File root = folder.newFile("config.json");
+        Files.write(parameters1.toPath(), parameters.getBytes(UTF_8));
+        Files.write(parameters2.toPath(), parameters.getBytes(UTF_8));
+        Files.write(root.toPath(), ("{\"levels\":[\"service\"],\"nodes\":[" +
+                "{\"match\":\"traffic\",\"parameters\":[{\"include_array\":\"file:" + parameters1.getAbsolutePath() + "\"}]}," +
+                "{\"match\":\"weather\",\"parameters\":[{\"include_array\":\"file:" + parameters2.getAbsolutePath() + "\"}]}," +
+                "{\"match\":\"routing\",\"parameters\":[{\"include_array\":\"file::" + parameters1.getAbsolutePath() + "\"}]}]}").getBytes(UTF_8));
+        final Configuration configuration = new Configuration(reloading(root));
+
+        // Documents with the same content share their parameters.
+        final Node traffic = configuration.findNode("traffic");
+        assertNotNull(traffic);
+        assertNotNull(traffic.getParameters());
+        assertEquals(2, traffic.getParameters().size());
+        assertEquals(traffic.getParameters(), configuration.findNode("weather").getParameters());
+        assertEquals(traffic.getParameters(), configuration.findNode("routing").getParameters());
+
+        // A changed document is no longer shared.
+        Files.write(parameters2.toPath(), parameters.replace("\"2\"", "\"3\"").getBytes(UTF_8));
+        assertTrue(configuration.reload());
+        final Node weather = configuration.findNode("weather");
+        assertNotNull(weather);
+        assertNotNull(weather.getParameters());
+        assertTrue(weather.getParameters().stream().anyMatch(parameter -> parameter.getValue().equals("3")));
+        assertSame(traffic.getParameters().iterator().next(), weather.getParameters().iterator().next());
+        assertFalse(configuration.findNode("traffic").getParameters().stream().anyMatch(parameter -> parameter.getValue().equals("3")));
+    }
+
+    private static ConfigurationServiceProperties reloading(final File root) {
+        return new ConfigurationServiceProperties("file:" + root.getAbsolutePath(),
+                ConfigurationServiceProperties.DEFAULT_RESULT_CACHE_SIZE, 60, false, null,
+                ConfigurationServiceProperties.DEFAULT_EXECUTION_MODE.name());
+    }
+
+    private static String service(final String service, final String radius) {
+        return "{\"match\":\"" + service + "\",\"nodes\":[{\"match\":\"cheapo\"," +
+                "\"parameters\":[{\"key\":\"radius\",\"value\":\"" + radius + "\"}]}]}";
+    }
+
+    private static String search(final Configuration configuration) {
+        return configuration.matchNode(listOf(searchTerms())).get(0).getParameters().get(0).getValue();
+    }
+
+    private static Map<String, String> searchTerms() {
+        final Map<String, String> map = new HashMap<>();
+        map.put("service", "traffic");
+        return map;
+    }
+}
@@ -341,7 +341,7 @@ public class ConfigurationTest {
         final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:include-multi-ok1.json"));
         Assert.assertNotNull(configuration);
         final String contents = Json.toJson(configuration);
-        Assert.assertEquals("{\"initialConfigurationOK\":true,\"root\":{\"nodes\":[{\"match\":\"X\",\"nodes\":[{\"match\":\".*\",\"parameters\":[{\"key\":\"radius_km\",\"value\":\"25\"},{\"key\":\"interval_secs\",\"value\":\"120\"}]}]}],\"modified\":\"2016-01-02T12:34:56Z\",\"levels\":[\"l1\",\"l2\"]},\"configurationServiceProperties\":{\"startupConfigurationURI\":\"classpath:include-multi-ok1.json\"}}",
+        Assert.assertEquals("{\"initialConfigurationOK\":true,\"root\":{\"nodes\":[{\"match\":\"X\",\"nodes\":[{\"match\":\".*\",\"parameters\":[{\"key\":\"radius_km\",\"value\":\"25\"},{\"key\":\"interval_secs\",\"value\":\"120\"}]}]}],\"modified\":\"2016-01-02T12:34:56Z\",\"levels\":[\"l1\",\"l2\"]},\"configurationServiceProperties\":{\"startupConfigurationURI\":\"classpath:include-multi-ok1.json\",\"resultCacheSize\":10000,\"reloadIntervalSecs\":0,\"watchFiles\":false,\"executionMode\":\"PROCESSOR\"}}",
                 contents);
     }
 
@@ -372,4 +372,11 @@ public class ConfigurationTest {
         final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:wrong-name3.json"));
         Assert.assertNotNull(configuration);
     }
+
+    @Test(expected = IncorrectConfigurationException.class)
+    public void testWrongRegex() throws IncorrectConfigurationException {
+        LOG.info("testWrongRegex");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:wrong-regex.json"));
+        Assert.assertNotNull(configuration);
+    }
 }
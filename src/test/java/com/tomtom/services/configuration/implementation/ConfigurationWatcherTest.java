@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.tomtom.speedtools.objects.Immutables.listOf;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class ConfigurationWatcherTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationWatcherTest.class);
+
+    private static final long TIMEOUT_MILLIS = 20000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWatchInclude() throws Exception {
+        LOG.info("testWatchInclude");
+        final File root = folder.newFile("config.json");
+        final File include = folder.newFile("traffic.json");
+        Files.write(include.toPath(), traffic("1").getBytes(UTF_8));
+        Files.write(root.toPath(), ("{\"levels\":[\"service\"],\"nodes\":[{\"include\":\"file:" +
+                include.getAbsolutePath() + "\"}]}").getBytes(UTF_8));
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + root.getAbsolutePath()));
+        final ConfigurationWatcher watcher = new ConfigurationWatcher(configuration, true, 50);
+        try {
+            assertEquals(2, watcher.getWatchedFiles().size());
+            assertTrue(watcher.getWatchedFiles().contains(include.toPath().toAbsolutePath().normalize()));
+
+            // Change the include, in a burst.
+            Files.write(include.toPath(), traffic("2").getBytes(UTF_8));
+            Files.write(include.toPath(), traffic("3").getBytes(UTF_8));
+            assertTrue(waitFor(configuration, "3"));
+        } finally {
+            watcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testWatchAfterOtherReload() throws Exception {
+        LOG.info("testWatchAfterOtherReload");
+        final File root = folder.newFile("config.json");
+        final File include = folder.newFile("traffic.json");
+        Files.write(include.toPath(), traffic("1").getBytes(UTF_8));
+        Files.write(root.toPath(), ("{\"levels\":[\"service\"],\"nodes\":[" + traffic("1") + "]}").getBytes(UTF_8));
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + root.getAbsolutePath()));
+
+        // Debounce for longer than the test takes, so the watcher does not reload by itself.
+        final ConfigurationWatcher watcher = new ConfigurationWatcher(configuration, true, TIMEOUT_MILLIS * 2);
+        try {
+            assertEquals(1, watcher.getWatchedFiles().size());
+
+            // Add an include and reload, as the periodic reload or the API would.
+            Files.write(root.toPath(), ("{\"levels\":[\"service\"],\"nodes\":[{\"include\":\"file:" +
+                    include.getAbsolutePath() + "\"}]}").getBytes(UTF_8));
+            assertTrue(configuration.reload());
+            assertEquals(2, watcher.getWatchedFiles().size());
+            assertTrue(watcher.getWatchedFiles().contains(include.toPath().toAbsolutePath().normalize()));
+        } finally {
+            watcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testWatchDisabled() throws Exception {
+        LOG.info("testWatchDisabled");
+        final File root = folder.newFile("config.json");
+        Files.write(root.toPath(), ("{\"levels\":[\"service\"],\"nodes\":[" + traffic("1") + "]}").getBytes(UTF_8));
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + root.getAbsolutePath()));
+        final ConfigurationWatcher watcher = new ConfigurationWatcher(configuration, false, 50);
+        assertTrue(watcher.getWatchedFiles().isEmpty());
+        watcher.shutdown();
+    }
+
+    private static boolean waitFor(final Configuration configuration, final String value) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < end) {
+            if (value.equals(search(configuration))) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    private static String traffic(final String radius) {
+        return "{\"match\":\"traffic\",\"parameters\":[{\"key\":\"radius\",\"value\":\"" + radius + "\"}]}";
+    }
+
+    private static String search(final Configuration configuration) {
+        final Map<String, String> searchTerms = new HashMap<>();
+        searchTerms.put("service", "traffic");
+        return configuration.matchNode(listOf(searchTerms)).get(0).getParameters().get(0).getValue();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_16;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class DocumentParserTest {
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentParserTest.class);
+
+    @Test
+    public void testIsXml() {
+        LOG.info("testIsXml");
+        assertTrue(DocumentParser.isXml(bytes("<node/>")));
+        assertTrue(DocumentParser.isXml(bytes("\uFEFF \n\t<?xml version=\"1.0\"?><node/>")));
+        assertFalse(DocumentParser.isXml(bytes("{\"match\":\"a\"}")));
+        assertFalse(DocumentParser.isXml(bytes("  // Comment\n{}")));
+        assertFalse(DocumentParser.isXml(bytes("")));
+        assertTrue(DocumentParser.isXml(ByteBuffer.wrap("<node/>".getBytes(UTF_16))));
+    }
+
+    @Test
+    public void testParse() throws IncorrectConfigurationException {
+        LOG.info("testParse");
+        final NodeDTO json = DocumentParser.parse(bytes("/* Comment */ {\"match\":\"a\"}"), DocumentParser.getType(NodeDTO.class));
+        assertEquals("a", json.getMatch());
+        final NodeDTO xml = DocumentParser.parse(bytes("\n<node><match>b</match></node>"), DocumentParser.getType(NodeDTO.class));
+        assertEquals("b", xml.getMatch());
+        final List<ParameterDTO> parameters = DocumentParser.parse(bytes("[{\"key\":\"k\",\"value\":\"v\"}]"),
+                DocumentParser.getListType(ParameterDTO.class));
+        assertEquals(1, parameters.size());
+        assertEquals("v", parameters.get(0).getValue());
+        assertSame(DocumentParser.getListType(ParameterDTO.class), DocumentParser.getListType(ParameterDTO.class));
+    }
+
+    @Test
+    public void testParseEncodings() throws IncorrectConfigurationException {
+        LOG.info("testParseEncodings");
+        final String json = "{\"match\":\"\u00e9t\u00e9\"}";
+        assertEquals("\u00e9t\u00e9", DocumentParser.<NodeDTO>parse(ByteBuffer.wrap(json.getBytes(UTF_16)),
+                DocumentParser.getType(NodeDTO.class)).getMatch());
+        final ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        direct.put(json.getBytes(UTF_8)).flip();
+        assertEquals("\u00e9t\u00e9", DocumentParser.<NodeDTO>parse(direct, DocumentParser.getType(NodeDTO.class)).getMatch());
+    }
+
+    @Test
+    public void testReadBytes() throws IncorrectConfigurationException {
+        LOG.info("testReadBytes");
+        final byte[] document = new byte[20000];
+        for (int i = 0; i < document.length; ++i) {
+            document[i] = (byte) i;
+        }
+
+        // Exact, unknown, too small and too large expected sizes.
+        for (final long expectedSize : new long[]{20000, -1, 100, 30000}) {
+            final ByteBuffer content = SourceReader.readBytes("test", new ByteArrayInputStream(document), expectedSize);
+            assertEquals(ByteBuffer.wrap(document), content);
+        }
+        assertEquals(document.length, SourceReader.readBytes("test", new ByteArrayInputStream(document), document.length).array().length);
+        assertEquals(0, SourceReader.readBytes("test", new ByteArrayInputStream(new byte[0]), 0).remaining());
+    }
+
+    @Test
+    public void testParseError() {
+        LOG.info("testParseError");
+        try {
+            DocumentParser.parse(bytes("<node><match>"), DocumentParser.getType(NodeDTO.class));
+            fail("Incorrect XML should not be parsed");
+        } catch (final IncorrectConfigurationException e) {
+            assertTrue(e.getMessage().contains("XML ERROR"));
+        }
+        try {
+            DocumentParser.parse(bytes("{\"match\":"), DocumentParser.getType(NodeDTO.class));
+            fail("Incorrect JSON should not be parsed");
+        } catch (final IncorrectConfigurationException e) {
+            assertTrue(e.getMessage().contains("JSON ERROR"));
+        }
+    }
+
+    private static ByteBuffer bytes(final String content) {
+        return ByteBuffer.wrap(content.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import akka.dispatch.ExecutionContexts;
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.ConfigurationServiceProperties.ExecutionMode;
+import com.tomtom.speedtools.rest.Reactor;
+import com.tomtom.speedtools.rest.ResourceProcessor;
+import org.jboss.resteasy.spi.ResteasyUriInfo;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.StackProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import scala.concurrent.ExecutionContext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the request pipeline of 'GET /tree?...': {@link TreeResourceImpl#findBestMatch}, which
+ * searches the tree, calculates the ETag and checks the conditional headers, followed by writing the
+ * response body. The resource is shared by all benchmark threads, like in the service, so running it with
+ * an increasing number of threads shows how the throughput scales with cores.
+ * <p>
+ * Run {@link #main(String[])} (or {@code mvn test -Pscaling}) to run the benchmark with 1, 2, 4, ... threads,
+ * up to the number of processors. It prints the throughput per thread count and writes it to
+ * "target/scaling.csv", with one row per thread count and one column per scenario, which can be charted
+ * directly. Use argument "profile" to add the stack profiler, which shows the fraction of time threads
+ * are blocked and where, to find contention.
+ * <p>
+ * The requests are executed in every execution mode of parameter 'mode', see {@link RequestExecutor}.
+ * In mode 'processor', the resource processor executes the handlers on a fork-join pool, like the Akka
+ * dispatcher of the service, so the benchmark includes passing every request to another thread. Mode
+ * 'virtual' requires a JRE with virtual threads; add it with JMH option "-p mode=processor,direct,virtual".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class FindBestMatchBenchmark {
+
+    private static final int NR_QUERIES = 1024;
+    private static final String IF_MODIFIED_SINCE = "Sat, 02 Jan 2016 12:34:56 GMT";
+
+    @Param("10x10x100")
+    public String shape;
+
+    @Param("1.0")
+    public double skew;
+
+    @Param({"processor", "direct"})
+    public String mode;
+
+    private TreeResourceImpl resource;
+    private List<UriInfo> queries;
+    private List<String> eTags;
+
+    @Setup
+    public void setup() throws IncorrectConfigurationException {
+        final TreeGenerator generator = TreeGenerator.of(shape);
+        final Configuration configuration = generator.createConfiguration(ConfigurationServiceProperties.DEFAULT_RESULT_CACHE_SIZE);
+        final ExecutionContext executionContext = ExecutionContexts.fromExecutor(ForkJoinPool.commonPool());
+        final ResourceProcessor processor = new ResourceProcessor(new Reactor() {
+            @Nonnull
+            @Override
+            public ExecutionContext getExecutionContext() {
+                return executionContext;
+            }
+
+            @Nonnull
+            @Override
+            public DateTime getSystemStartupTime() {
+                return new DateTime();
+            }
+        });
+        resource = new TreeResourceImpl(configuration,
+                new RequestExecutor(ExecutionMode.valueOf(mode.toUpperCase(Locale.ROOT)), processor));
+        queries = new ArrayList<>(NR_QUERIES);
+        eTags = new ArrayList<>(NR_QUERIES);
+        for (final Map<String, String> query : generator.createQueries(NR_QUERIES, skew, 0.0)) {
+            final UriInfo uriInfo = new ResteasyUriInfo(URI.create("http://localhost/tree?" + generator.toQueryString(query)));
+            queries.add(uriInfo);
+            final CapturingResponse response = new CapturingResponse();
+            response.begin();
+            resource.findBestMatch(null, null, uriInfo, response);
+            response.await();
+            eTags.add(response.response.getEntityTag().getValue());
+        }
+    }
+
+    /**
+     * State of a benchmark thread: the next query and the buffer to write responses to.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        private final CapturingResponse response = new CapturingResponse();
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int index;
+
+        private int next() {
+            index = (index + 1) % NR_QUERIES;
+            return index;
+        }
+    }
+
+    /**
+     * Unconditional request: search, ETag and response body.
+     *
+     * @param client Client.
+     * @return Size of the response body.
+     * @throws IOException Never.
+     */
+    @Benchmark
+    public int findBestMatch(@Nonnull final Client client) throws IOException {
+        client.response.begin();
+        resource.findBestMatch(null, null, queries.get(client.next()), client.response);
+        client.response.await();
+        client.out.reset();
+        ((SearchResultsBody) client.response.response.getEntity()).writeTo(MediaType.APPLICATION_JSON_TYPE, client.out);
+        return client.out.size();
+    }
+
+    /**
+     * Conditional request with If-Modified-Since, which is not modified: search and header parsing.
+     *
+     * @param client Client.
+     * @return Status.
+     */
+    @Benchmark
+    public int findBestMatchIfModifiedSince(@Nonnull final Client client) {
+        client.response.begin();
+        resource.findBestMatch(IF_MODIFIED_SINCE, null, queries.get(client.next()), client.response);
+        client.response.await();
+        return client.response.response.getStatus();
+    }
+
+    /**
+     * Conditional request with If-None-Match, which matches: search and ETag.
+     *
+     * @param client Client.
+     * @return Status.
+     */
+    @Benchmark
+    public int findBestMatchIfNoneMatch(@Nonnull final Client client) {
+        final int index = client.next();
+        client.response.begin();
+        resource.findBestMatch(null, '"' + eTags.get(index) + '"', queries.get(index), client.response);
+        client.response.await();
+        return client.response.response.getStatus();
+    }
+
+    /**
+     * Run the benchmark for 1, 2, 4, ... threads, up to the number of processors, and report the throughput
+     * per number of threads.
+     *
+     * @param args Optional "profile", to add the stack profiler.
+     * @throws Exception If the benchmark fails.
+     */
+    public static void main(@Nonnull final String[] args) throws Exception {
+        final boolean profile = (args.length > 0) && "profile".equals(args[0]);
+        final int nrProcessors = Runtime.getRuntime().availableProcessors();
+        final List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < nrProcessors; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(nrProcessors);
+
+        // Throughput per scenario, per number of threads.
+        final Map<String, Map<Integer, Double>> scores = new TreeMap<>();
+        for (final int threads : threadCounts) {
+            final ChainedOptionsBuilder options = new OptionsBuilder().
+                    include(FindBestMatchBenchmark.class.getName() + '.').
+                    threads(threads);
+            if (profile) {
+                options.addProfiler(StackProfiler.class);
+            }
+            for (final RunResult result : new Runner(options.build()).run()) {
+                final String benchmark = result.getParams().getBenchmark();
+                final String scenario = benchmark.substring(benchmark.lastIndexOf('.') + 1) + '-' + result.getParams().getParam("mode");
+                scores.computeIfAbsent(scenario, key -> new TreeMap<>()).
+                        put(threads, result.getPrimaryResult().getScore());
+            }
+        }
+        report(scores, threadCounts, System.out);
+
+        final Path csv = Paths.get("target", "scaling.csv");
+        Files.createDirectories(csv.getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(csv), false, "UTF-8")) {
+            out.print("threads");
+            for (final String scenario : scores.keySet()) {
+                out.print(',' + scenario);
+            }
+            out.println();
+            for (final int threads : threadCounts) {
+                out.print(threads);
+                for (final Map<Integer, Double> scenarioScores : scores.values()) {
+                    out.print(String.format(Locale.ROOT, ",%.0f", scenarioScores.get(threads)));
+                }
+                out.println();
+            }
+        }
+        System.out.println("Results written to: " + csv.toAbsolutePath());
+    }
+
+    /**
+     * Print the throughput per scenario and number of threads, with the scaling efficiency: the
+     * throughput relative to the throughput of 1 thread times the number of threads.
+     *
+     * @param scores       Throughput per scenario, per number of threads.
+     * @param threadCounts Numbers of threads.
+     * @param out          Stream to print to.
+     */
+    static void report(
+            @Nonnull final Map<String, Map<Integer, Double>> scores,
+            @Nonnull final List<Integer> threadCounts,
+            @Nonnull final PrintStream out) {
+        for (final Map.Entry<String, Map<Integer, Double>> entry : scores.entrySet()) {
+            out.println();
+            out.println(entry.getKey());
+            out.println("threads        ops/s   ops/s/thread  efficiency");
+            final double single = entry.getValue().get(threadCounts.get(0));
+            for (final int threads : threadCounts) {
+                final double score = entry.getValue().get(threads);
+                out.println(String.format(Locale.ROOT, "%7d %12.0f %14.0f %10.0f%%",
+                        threads, score, score / threads, (100.0 * score) / (single * threads)));
+            }
+        }
+    }
+
+    /**
+     * Asynchronous response which keeps the response it was resumed with. The response may be resumed
+     * on another thread, so a request waits for it with {@link #await()}.
+     */
+    private static final class CapturingResponse implements AsyncResponse {
+        @Nullable
+        private volatile Response response;
+        @Nonnull
+        private CountDownLatch resumed = new CountDownLatch(0);
+
+        private void begin() {
+            resumed = new CountDownLatch(1);
+        }
+
+        private void await() {
+            try {
+                resumed.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted", e);
+            }
+        }
+
+        @Override
+        public boolean resume(@Nullable final Object response) {
+            this.response = (Response) response;
+            resumed.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean resume(@Nonnull final Throwable response) {
+            throw new IllegalStateException("Request failed", response);
+        }
+
+        @Override
+        public boolean cancel() {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(final int retryAfter) {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(@Nullable final Date retryAfter) {
+            return false;
+        }
+
+        @Override
+        public boolean isSuspended() {
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+
+        @Override
+        public boolean setTimeout(final long time, @Nonnull final TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public void setTimeoutHandler(@Nonnull final TimeoutHandler handler) {
+            // Not used.
+        }
+
+        @Override
+        @Nullable
+        public Collection<Class<?>> register(@Nonnull final Class<?> callback) {
+            return null;
+        }
+
+        @Override
+        @Nullable
+        public Map<Class<?>, Collection<Class<?>>> register(@Nonnull final Class<?> callback, @Nonnull final Class<?>... callbacks) {
+            return null;
+        }
+
+        @Override
+        @Nullable
+        public Collection<Class<?>> register(@Nonnull final Object callback) {
+            return null;
+        }
+
+        @Override
+        @Nullable
+        public Map<Class<?>, Collection<Class<?>>> register(@Nonnull final Object callback, @Nonnull final Object... callbacks) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class HttpDateParserTest {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpDateParserTest.class);
+
+    @Test
+    public void testParse() {
+        LOG.info("testParse");
+        final DateTime expected = new DateTime(2016, 1, 2, 12, 34, 56, DateTimeZone.UTC);
+        assertEquals(expected, HttpDateParser.parse("Sat, 02 Jan 2016 12:34:56 GMT"));
+        assertEquals(expected, HttpDateParser.parse("Sat, 2 Jan 2016 13:34:56 +0100"));
+        assertEquals(expected, HttpDateParser.parse("02 Jan 2016 12:34:56 GMT"));
+
+        // The day of the week is not checked.
+        assertEquals(expected, HttpDateParser.parse("Mon, 2 Jan 2016 12:34:56 GMT"));
+    }
+
+    @Test
+    public void testParseCached() {
+        LOG.info("testParseCached");
+        final DateTime first = HttpDateParser.parse("Sun, 03 Jan 2016 00:00:00 GMT");
+        assertNotNull(first);
+        assertSame(first, HttpDateParser.parse("Sun, 03 Jan 2016 00:00:00 GMT"));
+    }
+
+    @Test
+    public void testParseIncorrect() {
+        LOG.info("testParseIncorrect");
+        assertNull(HttpDateParser.parse(""));
+        assertNull(HttpDateParser.parse("yesterday"));
+        assertNull(HttpDateParser.parse("2016-01-02T12:34:56Z"));
+        assertNull(HttpDateParser.parse("Sat, 32 Jan 2016 12:34:56 GMT"));
+    }
+}
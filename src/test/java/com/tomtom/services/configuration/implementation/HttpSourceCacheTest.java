@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.tomtom.speedtools.objects.Immutables.listOf;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class HttpSourceCacheTest {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpSourceCacheTest.class);
+
+    private final Map<String, String> documents = new ConcurrentHashMap<>();
+    private final AtomicInteger nrOK = new AtomicInteger();
+    private final AtomicInteger nrNotModified = new AtomicInteger();
+    private HttpServer server;
+    private String baseUri;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        baseUri = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConditionalReload() throws Exception {
+        LOG.info("testConditionalReload");
+        documents.put("/root.json", "{\"levels\":[\"service\"],\"nodes\":[{\"include\":\"" + baseUri + "/traffic.json\"}]}");
+        documents.put("/traffic.json", traffic("1"));
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties(baseUri + "/root.json"));
+        final ConfigurationSnapshot snapshot1 = configuration.getSnapshot();
+        assertEquals(2, nrOK.get());
+        assertEquals("1", search(configuration));
+
+        // Unchanged documents: only 304 responses.
+        assertFalse(configuration.reload());
+        assertSame(snapshot1, configuration.getSnapshot());
+        assertEquals(2, nrOK.get());
+        assertEquals(2, nrNotModified.get());
+
+        // Changed include: only the include is transferred again.
+        documents.put("/traffic.json", traffic("2"));
+        assertTrue(configuration.reload());
+        assertEquals("2", search(configuration));
+        assertEquals(3, nrOK.get());
+    }
+
+    @Test
+    public void testChangeAfterFailedReload() throws Exception {
+        LOG.info("testChangeAfterFailedReload");
+        documents.put("/root.json", "{\"levels\":[\"service\"],\"nodes\":[{\"include\":\"" + baseUri + "/traffic.json\"}," +
+                "{\"include\":\"" + baseUri + "/settings.json\"}]}");
+        documents.put("/traffic.json", traffic("1"));
+        documents.put("/settings.json", "{\"match\":\"settings\"}");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties(baseUri + "/root.json"));
+        assertEquals("1", search(configuration));
+
+        // One include changes, but the reload fails, because another include cannot be read.
+        documents.put("/traffic.json", traffic("2"));
+        final String settings = documents.remove("/settings.json");
+        try {
+            configuration.reload();
+            fail("Reload should fail");
+        } catch (final IncorrectConfigurationException ignored) {
+            // Expected.
+        }
+        assertEquals("1", search(configuration));
+
+        // The next reload still picks up the change, although all documents are now not modified.
+        documents.put("/settings.json", settings);
+        assertTrue(configuration.reload());
+        assertEquals("2", search(configuration));
+        assertFalse(configuration.reload());
+    }
+
+    @Test
+    public void testIsUnmodified() throws Exception {
+        LOG.info("testIsUnmodified");
+        documents.put("/traffic.json", traffic("1"));
+        final HttpSourceCache cache = new HttpSourceCache();
+        final String uri = baseUri + "/traffic.json";
+        assertFalse(cache.isUnmodified(listOf(uri)));
+        assertEquals(traffic("1"), UTF_8.decode(cache.read(uri)).toString().trim());
+
+        // Only documents of a published tree are compared.
+        assertFalse(cache.isUnmodified(listOf(uri)));
+        cache.publish(listOf(uri));
+        assertTrue(cache.isUnmodified(listOf(uri)));
+        assertFalse(cache.isUnmodified(listOf(uri, "classpath:example.json")));
+
+        // A changed document remains modified until it is published, even if it was read already.
+        documents.put("/traffic.json", traffic("2"));
+        assertFalse(cache.isUnmodified(listOf(uri)));
+        assertFalse(cache.isUnmodified(listOf(uri)));
+        assertEquals(traffic("2"), UTF_8.decode(cache.read(uri)).toString().trim());
+        cache.publish(listOf(uri));
+        assertTrue(cache.isUnmodified(listOf(uri)));
+        cache.publish(Collections.emptyList());
+        assertFalse(cache.isUnmodified(listOf(uri)));
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String document = documents.get(exchange.getRequestURI().getPath());
+        if (document == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        final String eTag = '"' + Integer.toHexString(document.hashCode()) + '"';
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            nrNotModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        nrOK.incrementAndGet();
+        final byte[] body = document.getBytes(UTF_8);
+        exchange.getResponseHeaders().add("ETag", eTag);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String traffic(final String radius) {
+        return "{\"match\":\"traffic\",\"parameters\":[{\"key\":\"radius\",\"value\":\"" + radius + "\"}]}";
+    }
+
+    private static String search(final Configuration configuration) {
+        final Map<String, String> searchTerms = new HashMap<>();
+        searchTerms.put("service", "traffic");
+        return configuration.matchNode(listOf(searchTerms)).get(0).getParameters().get(0).getValue();
+    }
+}
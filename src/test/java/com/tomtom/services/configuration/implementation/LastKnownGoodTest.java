@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class LastKnownGoodTest {
+    private static final Logger LOG = LoggerFactory.getLogger(LastKnownGoodTest.class);
+
+    private static final String CONFIG_1 = "{\"levels\":[\"service\"],\"nodes\":[{\"match\":\"a\",\"parameters\":[{\"key\":\"radius\",\"value\":\"1\"}]}]}";
+    private static final String CONFIG_2 = "{\"levels\":[\"service\"],\"nodes\":[{\"match\":\"b\",\"parameters\":[{\"key\":\"radius\",\"value\":\"2\"}]}]}";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private volatile String document;
+    private HttpServer server;
+    private String uri;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        uri = "http://localhost:" + server.getAddress().getPort() + "/root.json";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testStartWithLastKnownGood() throws Exception {
+        LOG.info("testStartWithLastKnownGood");
+        final File lastKnownGoodFile = new File(folder.getRoot(), "last-known-good.snapshot");
+        final ConfigurationServiceProperties properties = new ConfigurationServiceProperties(uri,
+                ConfigurationServiceProperties.DEFAULT_RESULT_CACHE_SIZE, 0, false, lastKnownGoodFile.getPath(),
+                ConfigurationServiceProperties.DEFAULT_EXECUTION_MODE.name());
+
+        // A successful load writes the snapshot.
+        document = CONFIG_1;
+        final Configuration first = new Configuration(properties);
+        assertFalse(first.isLastKnownGood());
+        assertTrue(lastKnownGoodFile.exists());
+
+        // The next start uses the snapshot, even if the startup configuration cannot be read.
+        document = null;
+        final Configuration configuration = new Configuration(properties);
+        assertTrue(configuration.isStartupConfigurationOK());
+        assertTrue(configuration.isLastKnownGood());
+        assertEquals(first.getRoot().getContentHash(), configuration.getRoot().getContentHash());
+        assertNotNull(configuration.findNode("a"));
+        try {
+            configuration.reload();
+            fail("Startup configuration cannot be read");
+        } catch (final IncorrectConfigurationException ignored) {
+            // Expected.
+        }
+        assertTrue(configuration.isLastKnownGood());
+
+        // The startup configuration replaces the snapshot, which is updated.
+        document = CONFIG_2;
+        assertTrue(configuration.reload());
+        assertFalse(configuration.isLastKnownGood());
+        assertNull(configuration.findNode("a"));
+        assertNotNull(configuration.findNode("b"));
+        document = null;
+        assertNotNull(new Configuration(properties).findNode("b"));
+    }
+
+    @Test
+    public void testReloaderReplacesLastKnownGood() throws Exception {
+        LOG.info("testReloaderReplacesLastKnownGood");
+        final File lastKnownGoodFile = new File(folder.getRoot(), "last-known-good.snapshot");
+        final ConfigurationServiceProperties properties = new ConfigurationServiceProperties(uri,
+                ConfigurationServiceProperties.DEFAULT_RESULT_CACHE_SIZE, 0, false, lastKnownGoodFile.getPath(),
+                ConfigurationServiceProperties.DEFAULT_EXECUTION_MODE.name());
+        document = CONFIG_1;
+        new Configuration(properties);
+
+        document = CONFIG_2;
+        final Configuration configuration = new Configuration(properties);
+        assertTrue(configuration.isLastKnownGood());
+        final ConfigurationReloader reloader = new ConfigurationReloader(configuration, properties);
+        try {
+            for (int i = 0; (i < 100) && configuration.isLastKnownGood(); ++i) {
+                Thread.sleep(50);
+            }
+        } finally {
+            reloader.shutdown();
+        }
+        assertFalse(configuration.isLastKnownGood());
+        assertNotNull(configuration.findNode("b"));
+    }
+
+    @Test
+    public void testIncorrectLastKnownGood() throws Exception {
+        LOG.info("testIncorrectLastKnownGood");
+        final File lastKnownGoodFile = folder.newFile("last-known-good.snapshot");
+        Files.write(lastKnownGoodFile.toPath(), "not a snapshot".getBytes(UTF_8));
+        final ConfigurationServiceProperties properties = new ConfigurationServiceProperties(uri,
+                ConfigurationServiceProperties.DEFAULT_RESULT_CACHE_SIZE, 0, false, lastKnownGoodFile.getPath(),
+                ConfigurationServiceProperties.DEFAULT_EXECUTION_MODE.name());
+        document = CONFIG_1;
+        final Configuration configuration = new Configuration(properties);
+        assertFalse(configuration.isLastKnownGood());
+        assertNotNull(configuration.findNode("a"));
+        assertTrue(SnapshotFile.isSnapshot(ByteBuffer.wrap(Files.readAllBytes(lastKnownGoodFile.toPath()))));
+    }
+
+    @Test
+    public void testInvalidRegexLastKnownGood() throws Exception {
+        LOG.info("testInvalidRegexLastKnownGood");
+
+        // A correctly framed snapshot, with levels [service] and a single node with match '[', which is not a regular expression.
+        final byte[] snapshot = {'C', 'S', 'N', 'A', 'P', 0, 1,
+                2, 7, 's', 'e', 'r', 'v', 'i', 'c', 'e', 1, '[',
+                0, 0, 2, 1, 0, 2,
+                2, 0, 0, 0, 0};
+        final File lastKnownGoodFile = folder.newFile("last-known-good.snapshot");
+        Files.write(lastKnownGoodFile.toPath(), snapshot);
+        final ConfigurationServiceProperties properties = new ConfigurationServiceProperties(uri,
+                ConfigurationServiceProperties.DEFAULT_RESULT_CACHE_SIZE, 0, false, lastKnownGoodFile.getPath(),
+                ConfigurationServiceProperties.DEFAULT_EXECUTION_MODE.name());
+
+        // The snapshot is ignored and the startup configuration is loaded.
+        document = CONFIG_1;
+        final Configuration configuration = new Configuration(properties);
+        assertFalse(configuration.isLastKnownGood());
+        assertNotNull(configuration.findNode("a"));
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String content = document;
+        if (content == null) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        final byte[] body = content.getBytes(UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for the service. It starts the service in-process, with the embedded server of
+ * {@link LocalTestServer} and a synthetic configuration from {@link TreeGenerator}, and sends
+ * 'GET /tree' requests from the skewed query workload of the generator.
+ * <p>
+ * The load is an open model: requests are scheduled at a constant rate, whether or not earlier requests
+ * have completed. The latency of a request is measured from the time it was scheduled, rather than from
+ * the time it was sent, so a stalled server is not hidden by a stalled load generator (coordinated
+ * omission). The service time, measured from the time the request was sent, is reported as well.
+ * <p>
+ * Usage: {@code LoadGenerator [name=value ...]}, with the names (and defaults):
+ * <pre>
+ *     shape=10x10x100   tree shape, see {@link TreeGenerator}
+ *     skew=1.0          skew of the queries
+ *     rate=1000         requests per second
+ *     warmup=5          seconds of load before measuring
+ *     duration=30       seconds of load to measure
+ *     threads=64        maximum number of concurrent requests
+ *     keepAlive=false   reuse connections
+ *     output=target/loadtest
+ * </pre>
+ * The percentile distributions are written to "latency.hgrm" and "service-time.hgrm" in the output
+ * directory, which can be plotted with the HdrHistogram plotter.
+ * <p>
+ * Connections are not reused by default: the embedded server writes responses in several packets,
+ * which adds the delayed acknowledgement time of TCP (some 40 ms) to every request on a reused
+ * connection. A new connection to localhost takes far less time than that.
+ */
+public final class LoadGenerator {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final int NR_QUERIES = 10000;
+    private static final long HIGHEST_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final double NANOS_PER_MILLI = 1.0e6;
+
+    private LoadGenerator() {
+        // Prevent instantiation.
+    }
+
+    public static void main(@Nonnull final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                System.err.println("Usage: LoadGenerator [name=value ...], see the documentation of the class");
+                System.exit(2);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        final Path output = Paths.get(options.getOrDefault("output", "target/loadtest"));
+        final Result result = run(
+                TreeGenerator.of(options.getOrDefault("shape", "10x10x100")),
+                Double.parseDouble(options.getOrDefault("skew", "1.0")),
+                Integer.parseInt(options.getOrDefault("rate", "1000")),
+                Integer.parseInt(options.getOrDefault("warmup", "5")),
+                Integer.parseInt(options.getOrDefault("duration", "30")),
+                Integer.parseInt(options.getOrDefault("threads", "64")),
+                Boolean.parseBoolean(options.getOrDefault("keepAlive", "false")),
+                output);
+        result.print(System.out);
+        Files.createDirectories(output);
+        try (PrintStream out = new PrintStream(Files.newOutputStream(output.resolve("latency.hgrm")), false, "UTF-8")) {
+            result.latency.outputPercentileDistribution(out, NANOS_PER_MILLI);
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(output.resolve("service-time.hgrm")), false, "UTF-8")) {
+            result.serviceTime.outputPercentileDistribution(out, NANOS_PER_MILLI);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Start the service and run the load.
+     *
+     * @param generator    Generator of the configuration and the queries.
+     * @param skew         Skew of the queries, see {@link TreeGenerator#createQueries(int, double, double)}.
+     * @param rate         Requests per second.
+     * @param warmupSecs   Seconds of load before measuring.
+     * @param durationSecs Seconds of load to measure.
+     * @param nrThreads    Maximum number of concurrent requests.
+     * @param keepAlive    True to reuse connections.
+     * @param directory    Directory to write the configuration to.
+     * @return Result.
+     * @throws Exception If the service cannot be started.
+     */
+    @Nonnull
+    static Result run(
+            @Nonnull final TreeGenerator generator,
+            final double skew,
+            final int rate,
+            final int warmupSecs,
+            final int durationSecs,
+            final int nrThreads,
+            final boolean keepAlive,
+            @Nonnull final Path directory) throws Exception {
+        assert rate > 0 : "rate must be > 0";
+        assert nrThreads > 0 : "nrThreads must be > 0";
+
+        final Path rootFile = directory.resolve("configuration/root.json").toAbsolutePath();
+        generator.write(rootFile);
+        final LocalTestServer server = new LocalTestServer("file:" + rootFile);
+        server.startServer();
+        try {
+            final List<String> urls = new ArrayList<>(NR_QUERIES);
+            for (final Map<String, String> query : generator.createQueries(NR_QUERIES, skew, 0.0)) {
+                urls.add(server.getHost() + "/tree?" + generator.toQueryString(query));
+            }
+            LOG.info("run: generator={}, rate={}/s, warmup={}s, duration={}s, threads={}, keepAlive={}",
+                    generator, rate, warmupSecs, durationSecs, nrThreads, keepAlive);
+            return runLoad(urls, rate, warmupSecs, durationSecs, nrThreads, keepAlive);
+        } finally {
+            server.stopServer();
+        }
+    }
+
+    @Nonnull
+    private static Result runLoad(
+            @Nonnull final List<String> urls,
+            final int rate,
+            final int warmupSecs,
+            final int durationSecs,
+            final int nrThreads,
+            final boolean keepAlive) throws Exception {
+        if (keepAlive) {
+
+            // Keep a connection per thread alive.
+            System.setProperty("http.maxConnections", String.valueOf(nrThreads));
+        }
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        final long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSecs);
+        final long end = measureStart + TimeUnit.SECONDS.toNanos(durationSecs);
+        final AtomicLong nextRequest = new AtomicLong();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        try {
+            final List<Future<Worker>> futures = new ArrayList<>(nrThreads);
+            for (int i = 0; i < nrThreads; ++i) {
+                final Worker worker = new Worker(keepAlive);
+                futures.add(executor.submit(() -> {
+                    worker.run(urls, nextRequest, start, intervalNanos, measureStart, end);
+                    return worker;
+                }));
+            }
+
+            // Merge the results of the workers.
+            final Histogram latency = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+            final Histogram serviceTime = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+            long nrErrors = 0;
+            for (final Future<Worker> future : futures) {
+                final Worker worker = future.get();
+                latency.add(worker.latency);
+                serviceTime.add(worker.serviceTime);
+                nrErrors += worker.nrErrors;
+            }
+            final double achievedRate = latency.getTotalCount() / (((double) (System.nanoTime() - measureStart)) / TimeUnit.SECONDS.toNanos(1));
+            return new Result(latency, serviceTime, nrErrors, rate, Math.min(rate, achievedRate));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Worker, which sends the next scheduled request whenever it is idle.
+     */
+    private static final class Worker {
+        private final Histogram latency = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+        private final Histogram serviceTime = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+        private final byte[] buffer = new byte[8192];
+        private final boolean keepAlive;
+        private long nrErrors = 0;
+
+        private Worker(final boolean keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        private void run(
+                @Nonnull final List<String> urls,
+                @Nonnull final AtomicLong nextRequest,
+                final long start,
+                final long intervalNanos,
+                final long measureStart,
+                final long end) {
+            while (!Thread.currentThread().isInterrupted()) {
+                final long request = nextRequest.getAndIncrement();
+                final long scheduled = start + (request * intervalNanos);
+                if (scheduled >= end) {
+                    return;
+                }
+                for (long wait = scheduled - System.nanoTime(); wait > 0; wait = scheduled - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+                final long sent = System.nanoTime();
+                final boolean ok = send(urls.get((int) (request % urls.size())));
+                final long done = System.nanoTime();
+                if (scheduled >= measureStart) {
+                    latency.recordValue(Math.min(done - scheduled, HIGHEST_LATENCY_NANOS));
+                    serviceTime.recordValue(Math.min(done - sent, HIGHEST_LATENCY_NANOS));
+                    nrErrors += ok ? 0 : 1;
+                }
+            }
+        }
+
+        private boolean send(@Nonnull final String url) {
+            try {
+                final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                connection.setConnectTimeout(TIMEOUT_MILLIS);
+                connection.setReadTimeout(TIMEOUT_MILLIS);
+                if (!keepAlive) {
+                    connection.setRequestProperty("Connection", "close");
+                }
+                final int status = connection.getResponseCode();
+
+                // Read the whole response, so the connection is kept alive.
+                try (InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream()) {
+                    if (in != null) {
+                        //noinspection StatementWithEmptyBody
+                        while (in.read(buffer) >= 0) {
+                            // Skip.
+                        }
+                    }
+                }
+                return status == HttpURLConnection.HTTP_OK;
+            } catch (final IOException e) {
+                LOG.debug("send: request failed, url={}, error={}", url, e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Result of a load test. Latencies are in nanoseconds.
+     */
+    @Immutable
+    static final class Result {
+        @Nonnull
+        final Histogram latency;
+        @Nonnull
+        final Histogram serviceTime;
+        final long nrErrors;
+        final int rate;
+        final double achievedRate;
+
+        private Result(
+                @Nonnull final Histogram latency,
+                @Nonnull final Histogram serviceTime,
+                final long nrErrors,
+                final int rate,
+                final double achievedRate) {
+            this.latency = latency;
+            this.serviceTime = serviceTime;
+            this.nrErrors = nrErrors;
+            this.rate = rate;
+            this.achievedRate = achievedRate;
+        }
+
+        /**
+         * Print a summary of the result.
+         *
+         * @param out Stream to print to.
+         */
+        void print(@Nonnull final PrintStream out) {
+            out.println(String.format(Locale.ROOT, "Requests:      %d (%d errors)", latency.getTotalCount(), nrErrors));
+            out.println(String.format(Locale.ROOT, "Throughput:    %.1f/s (scheduled %d/s)", achievedRate, rate));
+            out.println("                     latency   service time");
+            for (final double percentile : new double[]{50.0, 90.0, 99.0, 99.9, 99.99}) {
+                out.println(String.format(Locale.ROOT, "p%-7s  %12.3f ms %12.3f ms", percentile,
+                        latency.getValueAtPercentile(percentile) / NANOS_PER_MILLI,
+                        serviceTime.getValueAtPercentile(percentile) / NANOS_PER_MILLI));
+            }
+            out.println(String.format(Locale.ROOT, "max       %12.3f ms %12.3f ms",
+                    latency.getMaxValue() / NANOS_PER_MILLI, serviceTime.getMaxValue() / NANOS_PER_MILLI));
+        }
+    }
+}
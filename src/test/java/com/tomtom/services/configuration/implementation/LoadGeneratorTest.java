@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadGeneratorTest.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRun() throws Exception {
+        LOG.info("testRun");
+        final LoadGenerator.Result result = LoadGenerator.run(TreeGenerator.of("10x10"), 1.0, 200, 0, 1, 4, false, folder.getRoot().toPath());
+        assertEquals(0, result.nrErrors);
+        assertTrue(result.latency.getTotalCount() > 100);
+        assertTrue(result.latency.getMaxValue() >= result.serviceTime.getMaxValue());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        result.print(new PrintStream(out, true, "UTF-8"));
+        final String text = new String(out.toByteArray(), UTF_8);
+        LOG.info("testRun: result=\n{}", text);
+        assertTrue(text.contains("p99.9"));
+    }
+}
@@ -17,6 +17,7 @@
 package com.tomtom.services.configuration.implementation;
 
 import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.ConfigurationServiceProperties.ExecutionMode;
 import com.tomtom.speedtools.maven.MavenProperties;
 import com.tomtom.speedtools.rest.Reactor;
 import com.tomtom.speedtools.rest.ResourceProcessor;
@@ -36,10 +37,16 @@ public class LocalTestServer {
 
     final private TJWSEmbeddedJaxrsServer server;
     private final String config;
+    private final ExecutionMode executionMode;
     private final int port;
 
     public LocalTestServer(@Nonnull final String config) {
+        this(config, ConfigurationServiceProperties.DEFAULT_EXECUTION_MODE);
+    }
+
+    public LocalTestServer(@Nonnull final String config, @Nonnull final ExecutionMode executionMode) {
         this.config = config;
+        this.executionMode = executionMode;
         this.port = PORT;
         server = new TJWSEmbeddedJaxrsServer();
         server.setPort(port);
@@ -79,8 +86,11 @@ public class LocalTestServer {
         // Add tree resource.
         server.getDeployment().getResources().add(new TreeResourceImpl(
                 configuration,
-                resourceProcessor
+                new RequestExecutor(executionMode, resourceProcessor)
         ));
+
+        // Add writer for search results.
+        server.getDeployment().getProviders().add(new SearchResultsBodyWriter());
         server.start();
     }
 
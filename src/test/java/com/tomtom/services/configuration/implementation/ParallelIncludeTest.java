@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.domain.Node;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class ParallelIncludeTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelIncludeTest.class);
+
+    private static final int NR_INCLUDES = 8;
+    private static final long DELAY_MILLIS = 100;
+
+    private final Map<String, String> documents = new ConcurrentHashMap<>();
+    private final AtomicInteger nrActive = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private ExecutorService serverExecutor;
+    private HttpServer server;
+    private String baseUri;
+
+    @Before
+    public void startServer() throws IOException {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUri = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testParallelIncludes() throws Exception {
+        LOG.info("testParallelIncludes");
+        final StringBuilder root = new StringBuilder("{\"levels\":[\"service\",\"model\"],\"nodes\":[");
+        for (int i = 0; i < NR_INCLUDES; ++i) {
+            root.append((i == 0) ? "" : ",").append("{\"include\":\"").append(baseUri).append("/service").append(i).append(".json\"}");
+            documents.put("/service" + i + ".json", "{\"match\":\"service" + i + "\",\"nodes\":[" +
+                    "{\"include\":\"" + baseUri + "/model" + i + "a.json\"}," +
+                    "{\"include\":\"" + baseUri + "/model" + i + "b.json\"}]}");
+            documents.put("/model" + i + "a.json", "{\"match\":\"a\",\"parameters\":[{\"key\":\"radius\",\"value\":\"" + i + "\"}]}");
+            documents.put("/model" + i + "b.json", "{\"match\":\"b\",\"parameters\":[{\"key\":\"radius\",\"value\":\"" + i + "\"}]}");
+        }
+        documents.put("/root.json", root.append("]}").toString());
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties(baseUri + "/root.json"));
+
+        // Includes were read concurrently.
+        assertTrue(maxActive.get() > 1);
+
+        // The order of the children is the order of the includes.
+        final List<String> matches = new ArrayList<>();
+        assertNotNull(configuration.getRoot().getNodes());
+        for (final Node node : configuration.getRoot().getNodes()) {
+            matches.add(node.getMatch());
+            assertNotNull(node.getNodes());
+            assertEquals(2, node.getNodes().size());
+        }
+        assertEquals(NR_INCLUDES, matches.size());
+        for (int i = 0; i < NR_INCLUDES; ++i) {
+            assertEquals("service" + i, matches.get(i));
+        }
+        assertNotNull(configuration.findNode("service3/b"));
+        assertEquals("service=service3&model=b", configuration.findNode("service3/b").getMatched());
+    }
+
+    @Test
+    public void testParallelIncludesWithCycle() {
+        LOG.info("testParallelIncludesWithCycle");
+        documents.put("/root.json", "{\"levels\":[\"service\",\"model\"],\"nodes\":[" +
+                "{\"include\":\"" + baseUri + "/a.json\"},{\"include\":\"" + baseUri + "/b.json\"}]}");
+        documents.put("/a.json", "{\"match\":\"a\"}");
+        documents.put("/b.json", "{\"match\":\"b\",\"nodes\":[" +
+                "{\"include\":\"" + baseUri + "/c.json\"},{\"include\":\"" + baseUri + "/b.json\"}]}");
+        documents.put("/c.json", "{\"match\":\"c\"}");
+        try {
+            new Configuration(new ConfigurationServiceProperties(baseUri + "/root.json"));
+            fail("Include cycle should be detected");
+        } catch (final IncorrectConfigurationException e) {
+            assertTrue(e.getMessage().contains("Endless recursion"));
+        }
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final int active = nrActive.incrementAndGet();
+        maxActive.accumulateAndGet(active, Math::max);
+        try {
+            Thread.sleep(DELAY_MILLIS);
+        } catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        } finally {
+            nrActive.decrementAndGet();
+        }
+        final String document = documents.get(exchange.getRequestURI().getPath());
+        if (document == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        final byte[] body = document.getBytes(UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
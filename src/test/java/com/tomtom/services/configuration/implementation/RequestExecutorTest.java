@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties.ExecutionMode;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.*;
+
+public class RequestExecutorTest {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestExecutorTest.class);
+
+    @Test
+    public void testDirect() throws IncorrectConfigurationException {
+        LOG.info("testDirect");
+        checkExecutionMode(ExecutionMode.DIRECT);
+    }
+
+    @Test
+    public void testVirtual() throws IncorrectConfigurationException {
+        LOG.info("testVirtual");
+        Assume.assumeTrue(RequestExecutor.isVirtualThreadsSupported());
+        checkExecutionMode(ExecutionMode.VIRTUAL);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testVirtualNotSupported() {
+        LOG.info("testVirtualNotSupported");
+        Assume.assumeFalse(RequestExecutor.isVirtualThreadsSupported());
+        new RequestExecutor(ExecutionMode.VIRTUAL, null);
+    }
+
+    private static void checkExecutionMode(final ExecutionMode mode) throws IncorrectConfigurationException {
+        final LocalTestServer server = new LocalTestServer("classpath:example.json", mode);
+        server.startServer();
+        try {
+            assertEquals(200, get(server, "/tree?service=traffic&model=luxuri&device=device999", null).getStatus());
+            assertEquals(200, get(server, "/tree/traffic", null).getStatus());
+            assertEquals(304, get(server, "/tree?service=traffic&model=luxuri&device=device999",
+                    "Mon, 2 Jan 2016 12:34:57 GMT").getStatus());
+
+            // Exceptions of handlers are mapped to responses.
+            assertEquals(400, get(server, "/tree?service=traffic;settings", null).getStatus());
+            assertEquals(404, get(server, "/tree/unknown", null).getStatus());
+        } finally {
+            server.stopServer();
+        }
+    }
+
+    private static Response get(final LocalTestServer server, final String path, final String ifModifiedSince) {
+        final Response response = new ResteasyClientBuilder().build().
+                target(server.getHost() + path).
+                request().
+                header("If-Modified-Since", ifModifiedSince).
+                accept(MediaType.APPLICATION_JSON_TYPE).get();
+        response.close();
+        return response;
+    }
+}
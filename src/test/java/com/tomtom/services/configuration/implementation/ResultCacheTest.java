@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.dto.SearchResultDTO;
+import com.tomtom.speedtools.objects.Immutables;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.tomtom.speedtools.objects.Immutables.listOf;
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultCacheTest.class);
+
+    @Nonnull
+    private static Map<String, String> mapOf(final String... args) {
+        Assert.assertTrue((args.length % 2) == 0);
+        final Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < args.length; i = i + 2) {
+            map.put(args[i], args[i + 1]);
+        }
+        return map;
+    }
+
+    @Test
+    public void testCreateKey() {
+        LOG.info("testCreateKey");
+        final ResultCache cache = new ResultCache(new Node("x"), 10);
+        assertEquals("1:a0:2:bc", cache.createKey(SearchQuery.of(listOf(mapOf("l3", "bc", "l1", "A", "other", "x")), listOf("l1", "l2", "l3")), 0));
+        assertNotEquals(cache.createKey(SearchQuery.of(listOf(mapOf("l1", "a1:", "l2", "b")), listOf("l1", "l2")), 0),
+                cache.createKey(SearchQuery.of(listOf(mapOf("l1", "a", "l2", "1:b")), listOf("l1", "l2")), 0));
+    }
+
+    @Test
+    public void testIsCaseInsensitive() {
+        LOG.info("testIsCaseInsensitive");
+        assertTrue(ResultCache.isCaseInsensitive(new Node("abc")));
+        assertTrue(ResultCache.isCaseInsensitive(new Node("a.*|b[0-9]+")));
+        assertFalse(ResultCache.isCaseInsensitive(new Node("(?-i)abc")));
+        assertFalse(ResultCache.isCaseInsensitive(new Node("\\p{Lower}+")));
+        final Node root = new Node(null, Immutables.listOf(new Node("a"), new Node("(?-i)B")), null, null, null, null);
+        assertFalse(ResultCache.isCaseInsensitive(root));
+        final ResultCache cache = new ResultCache(root, 10);
+        assertEquals("1:B", cache.createKey(SearchQuery.of(listOf(mapOf("l1", "B")), listOf("l1")), 0));
+    }
+
+    @Test
+    public void testCacheHitsAndMisses() throws IncorrectConfigurationException {
+        LOG.info("testCacheHitsAndMisses");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:example.json"));
+        final ResultCache cache = configuration.getSnapshot().getResultCache();
+        assertTrue(cache.isEnabled());
+        assertEquals(ConfigurationServiceProperties.DEFAULT_RESULT_CACHE_SIZE, cache.getMaximumSize());
+
+        final SearchResultDTO x1 = configuration.matchNode(listOf(mapOf("service", "traffic", "model", "cheapo"))).get(0);
+        final SearchResultDTO x2 = configuration.matchNode(listOf(mapOf("service", "TRAFFIC", "model", "Cheapo"))).get(0);
+        assertEquals(1, cache.getStats().missCount());
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(1, cache.getSize());
+        assertSame(x1.getNode(), x2.getNode());
+        assertEquals("service=traffic&model=cheapo&device=", x1.getSearched());
+        assertEquals("service=TRAFFIC&model=Cheapo&device=", x2.getSearched());
+        assertEquals(x1.getMatched(), x2.getMatched());
+    }
+
+    @Test
+    public void testCacheDisabled() throws IncorrectConfigurationException {
+        LOG.info("testCacheDisabled");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:example.json", 0));
+        final ResultCache cache = configuration.getSnapshot().getResultCache();
+        assertFalse(cache.isEnabled());
+        assertFalse(configuration.matchNode(listOf(mapOf("service", "traffic"))).isEmpty());
+        assertEquals(0, cache.getStats().requestCount());
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.speedtools.apivalidation.exceptions.ApiParameterSyntaxException;
+import org.jboss.resteasy.specimpl.MultivaluedMapImpl;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+import static com.tomtom.speedtools.objects.Immutables.listOf;
+import static org.junit.Assert.*;
+
+public class SearchQueryTest {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchQueryTest.class);
+
+    @Test
+    public void testParse() {
+        LOG.info("testParse");
+        final MultivaluedMap<String, String> queryParameters = new MultivaluedMapImpl<>();
+        queryParameters.add("service", " traffic , , settings");
+        queryParameters.add("model", "a,b");
+        queryParameters.add("other", "x,y,z,w");
+        final SearchQuery query = SearchQuery.parse(queryParameters, listOf("model", "service", "device"));
+        assertEquals(listOf("model", "service", "device"), query.getLevels());
+        assertEquals(4, query.getNrSearches());
+        assertEquals("a", query.getTerm(0, 0));
+        assertEquals("traffic", query.getTerm(0, 1));
+        assertEquals("", query.getTerm(0, 2));
+        assertEquals("b", query.getTerm(1, 0));
+        assertEquals("", query.getTerm(1, 1));
+        assertEquals("b", query.getTerm(3, 0));
+        assertEquals("settings", query.getTerm(3, 1));
+        assertEquals("[{model=a, service=traffic, device=}, {model=b, service=, device=}, " +
+                "{model=b, service=settings, device=}, {model=b, service=settings, device=}]", query.toString());
+    }
+
+    @Test
+    public void testParseWithoutLevels() {
+        LOG.info("testParseWithoutLevels");
+        final MultivaluedMap<String, String> queryParameters = new MultivaluedMapImpl<>();
+        queryParameters.add("service", "");
+        final SearchQuery query = SearchQuery.parse(queryParameters, null);
+        assertTrue(query.getLevels().isEmpty());
+        assertEquals(1, query.getNrSearches());
+        assertEquals("[{}]", query.toString());
+    }
+
+    @Test
+    public void testParseWrongSeparator() {
+        LOG.info("testParseWrongSeparator");
+        final MultivaluedMap<String, String> queryParameters = new MultivaluedMapImpl<>();
+        queryParameters.add("other", "a, b;c ,d");
+        try {
+            SearchQuery.parse(queryParameters, listOf("service"));
+            fail("Wrong separator should be rejected");
+        } catch (final ApiParameterSyntaxException e) {
+            assertTrue(e.getMessage().contains("b;c"));
+        }
+    }
+}
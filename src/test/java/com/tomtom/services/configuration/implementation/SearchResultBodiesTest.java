@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.domain.Parameter;
+import com.tomtom.services.configuration.dto.SearchResultDTO;
+import com.tomtom.services.configuration.dto.SearchResultsDTO;
+import com.tomtom.speedtools.objects.Immutables;
+import org.jboss.resteasy.plugins.providers.jackson.ResteasyJackson2Provider;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.lang.annotation.Annotation;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+public class SearchResultBodiesTest {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchResultBodiesTest.class);
+
+    private static final String SEARCHED = "a=<x> & \"y\" 'z' é€\\/\t";
+
+    @Test
+    public void testJsonSameAsJackson() throws Exception {
+        LOG.info("testJsonSameAsJackson");
+        final SearchResultDTO searchResult = createSearchResult();
+        final SearchResultBodies bodies = new SearchResultBodies();
+        final String expected = new ObjectMapper().writeValueAsString(searchResult);
+
+        // Write twice, to use the cached fragments as well.
+        for (int i = 0; i < 2; ++i) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bodies.writeJson(Immutables.listOf(searchResult), false, out);
+            assertEquals(expected, new String(out.toByteArray(), UTF_8));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bodies.writeJson(Immutables.listOf(searchResult, searchResult), true, out);
+        assertEquals('[' + expected + ',' + expected + ']', new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void testJsonSameAsProvider() throws Exception {
+        LOG.info("testJsonSameAsProvider");
+        final SearchResultDTO searchResult = createSearchResult();
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new ResteasyJackson2Provider().writeTo(searchResult, SearchResultDTO.class, SearchResultDTO.class,
+                new Annotation[0], MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<>(), expected);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SearchResultBodies().writeJson(Immutables.listOf(searchResult), false, out);
+        assertEquals(new String(expected.toByteArray(), UTF_8), new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void testXmlSameAsJAXB() throws Exception {
+        LOG.info("testXmlSameAsJAXB");
+        final SearchResultDTO searchResult = createSearchResult();
+        final SearchResultBodies bodies = new SearchResultBodies();
+
+        final StringWriter writer = new StringWriter();
+        final Marshaller marshaller = JAXBContext.newInstance(SearchResultDTO.class).createMarshaller();
+        marshaller.marshal(searchResult, writer);
+        final String expected = writer.toString();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bodies.writeXml(Immutables.listOf(searchResult), false, out);
+        assertEquals(expected, new String(out.toByteArray(), UTF_8));
+
+        final StringWriter writerList = new StringWriter();
+        final Marshaller marshallerList = JAXBContext.newInstance(SearchResultsDTO.class).createMarshaller();
+        marshallerList.marshal(new SearchResultsDTO(Immutables.listOf(searchResult, searchResult)), writerList);
+        final ByteArrayOutputStream outList = new ByteArrayOutputStream();
+        bodies.writeXml(Immutables.listOf(searchResult, searchResult), true, outList);
+        assertEquals(writerList.toString(), new String(outList.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void testEscapeXml() {
+        LOG.info("testEscapeXml");
+        assertEquals("", SearchResultBodies.escapeXml(""));
+        assertEquals("abc", SearchResultBodies.escapeXml("abc"));
+        assertEquals("a&amp;b&lt;c&gt;d\"'", SearchResultBodies.escapeXml("a&b<c>d\"'"));
+
+        // Characters which are not allowed in XML are removed.
+        assertEquals("abc\td\ne\uD83D\uDE00", SearchResultBodies.escapeXml("a\u0000b\u0008c\td\ne\uFFFF\uD83D\uDE00\uDE00\uD83D"));
+    }
+
+    private static SearchResultDTO createSearchResult() {
+        final Node node = new Node("x", null,
+                Immutables.listOf(new Parameter("key<1>", "value & \"2\""), new Parameter("k", "é")), null, null, null);
+        final SearchResultDTO searchResult = new SearchResultDTO(node);
+        searchResult.setSearched(SEARCHED);
+        searchResult.setMatched(node.getMatched());
+        return searchResult;
+    }
+}
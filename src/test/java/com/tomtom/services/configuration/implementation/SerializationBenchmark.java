@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.SearchResultDTO;
+import com.tomtom.services.configuration.dto.SearchResultsDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of creating and serializing the DTOs of responses: the node of 'GET /tree/{path}' (a node
+ * one level above the deepest level, with all its children, see {@link TreeGenerator}) and the search results of 'GET /tree?...',
+ * both with the generic Jackson mapper and with the pre-serialized search results the service writes.
+ * Run with: {@code mvn test -Pbenchmark -Dbenchmark=SerializationBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class SerializationBenchmark {
+
+    @Param({"10x10x10", "10x10x100"})
+    public String shape;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private Node subtree;
+    private Node leaf;
+    private NodeDTO subtreeDTO;
+    private SearchResultsDTO searchResults;
+    private SearchResultsBody searchResultsBody;
+
+    @Setup
+    public void setup() throws IncorrectConfigurationException {
+        final TreeGenerator generator = TreeGenerator.of(shape);
+        final Configuration configuration = generator.createConfiguration(0);
+        final String path = generator.createLiteralPath();
+        leaf = configuration.findNode(path);
+        subtree = configuration.findNode(path.substring(0, path.lastIndexOf('/')));
+        assert (leaf != null) && (subtree != null);
+        subtreeDTO = new NodeDTO(subtree);
+        searchResults = configuration.matchNode(Arrays.asList(generator.createLiteralQuery(), generator.createRegexQuery()));
+        searchResultsBody = new SearchResultsBody(searchResults, configuration.getSnapshot().getSearchResultBodies());
+    }
+
+    @Benchmark
+    public NodeDTO createNodeDTO() {
+        return new NodeDTO(subtree);
+    }
+
+    @Benchmark
+    public SearchResultDTO createSearchResultDTO() {
+        return new SearchResultDTO(leaf);
+    }
+
+    @Benchmark
+    public byte[] serializeNodeDTO() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(subtreeDTO);
+    }
+
+    @Benchmark
+    public byte[] serializeSearchResultsDTO() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(searchResults);
+    }
+
+    @Benchmark
+    public int writeSearchResultsJson() throws IOException {
+        out.reset();
+        searchResultsBody.writeTo(MediaType.APPLICATION_JSON_TYPE, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeSearchResultsXml() throws IOException {
+        out.reset();
+        searchResultsBody.writeTo(MediaType.APPLICATION_XML_TYPE, out);
+        return out.size();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.dto.NodeDTO;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SnapshotFileTest {
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotFileTest.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        LOG.info("testWriteAndRead");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:example.json"));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        configuration.writeSnapshot(out);
+        assertTrue(SnapshotFile.isSnapshot(ByteBuffer.wrap(out.toByteArray())));
+
+        // The tree built from the snapshot is the same tree.
+        final File file = folder.newFile("example.snapshot");
+        Files.write(file.toPath(), out.toByteArray());
+        final Configuration compiled = new Configuration(new ConfigurationServiceProperties("file:" + file.getAbsolutePath()));
+        assertEquals(configuration.getRoot().getContentHash(), compiled.getRoot().getContentHash());
+        assertEquals(new NodeDTO(configuration.getRoot()).toString(), new NodeDTO(compiled.getRoot()).toString());
+        assertEquals("service=traffic&model=cheapo&device=device123",
+                compiled.findNode("traffic/cheapo/device123").getMatched());
+        assertEquals(configuration.getRoot().getModified(), compiled.getRoot().getModified());
+    }
+
+    @Test
+    public void testReadCorrupt() throws Exception {
+        LOG.info("testReadCorrupt");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Configuration(new ConfigurationServiceProperties("classpath:example.json")).writeSnapshot(out);
+        final byte[] bytes = out.toByteArray();
+        try {
+            SnapshotFile.read(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)));
+            fail("Truncated snapshot should not be read");
+        } catch (final IncorrectConfigurationException e) {
+            assertTrue(e.getMessage().contains("Truncated"));
+        }
+        assertFalse(SnapshotFile.isSnapshot(ByteBuffer.wrap("{\"levels\":[]}".getBytes())));
+    }
+
+    @Test
+    public void testReadHugeCount() {
+        LOG.info("testReadHugeCount");
+
+        // Header, version 1, no strings, root node without match and modified, followed by a huge count.
+        final byte[] header = {'C', 'S', 'N', 'A', 'P', 0, 1, 0, 0, 0};
+        final byte[] hugeCount = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        final byte[][] snapshots = {
+
+                // Huge number of levels.
+                concat(header, hugeCount),
+
+                // No levels, no parameters, huge number of nodes.
+                concat(concat(header, new byte[]{0, 0}), hugeCount)
+        };
+        for (final byte[] snapshot : snapshots) {
+            try {
+                SnapshotFile.read(ByteBuffer.wrap(snapshot));
+                fail("Snapshot with huge count should not be read");
+            } catch (final IncorrectConfigurationException e) {
+                assertTrue(e.getMessage().contains("Truncated"));
+            }
+        }
+    }
+
+    @Test
+    public void testReadTooDeep() {
+        LOG.info("testReadTooDeep");
+
+        // Header, version 1, no strings, followed by nodes which all have a single child, far beyond the maximum depth.
+        final byte[] header = {'C', 'S', 'N', 'A', 'P', 0, 1, 0};
+        final byte[] nodeWithChild = {0, 0, 0, 0, 2};
+        final int depth = 100000;
+        final byte[] snapshot = Arrays.copyOf(header, header.length + (depth * nodeWithChild.length) + 5);
+        for (int i = 0; i < depth; ++i) {
+            System.arraycopy(nodeWithChild, 0, snapshot, header.length + (i * nodeWithChild.length), nodeWithChild.length);
+        }
+        try {
+            SnapshotFile.read(ByteBuffer.wrap(snapshot));
+            fail("Snapshot which is too deep should not be read");
+        } catch (final IncorrectConfigurationException e) {
+            assertTrue(e.getMessage().contains("maximum depth"));
+        }
+    }
+
+    private static byte[] concat(final byte[] first, final byte[] second) {
+        final byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+}
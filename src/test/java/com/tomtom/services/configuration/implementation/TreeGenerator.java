@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generator of synthetic configuration trees and query workloads, for benchmarks and scale tests.
+ * <p>
+ * The shape of a tree is given by its fan-out per level, written as "F1xF2x...", such as "10x10x100": the
+ * root has 10 children, each of which has 10 children, each of which has 100 children (10,000 leaves). Of
+ * the children of a node, a fraction (the regex ratio) are regular expressions ("r3-[0-9]+"), evenly
+ * spread, and the others are literals ("v0", "v1", ...). The leaves have parameters. The subtrees at the
+ * include level, if any, are written to include files of their own.
+ * <p>
+ * Trees and queries are deterministic for a given seed. Queries select a child at every level with a
+ * Zipf distribution, so a few paths are queried far more often than others, like in production.
+ */
+@Immutable
+final class TreeGenerator {
+
+    static final String LEVEL_PREFIX = "level";
+    static final String MISSING_TERM = "missing";
+
+    private static final String PARAMETER_PREFIX = "param";
+    private static final int NR_PARAMETER_VALUES = 100;
+
+    @Nonnull
+    private final int[] fanOuts;
+    private final double regexRatio;
+    private final int nrParameters;
+    private final int includeLevel;
+    private final long seed;
+
+    private TreeGenerator(
+            @Nonnull final int[] fanOuts,
+            final double regexRatio,
+            final int nrParameters,
+            final int includeLevel,
+            final long seed) {
+        assert fanOuts.length >= 1 : "At least 1 level required";
+        assert (regexRatio >= 0.0) && (regexRatio <= 1.0) : "regexRatio must be in [0, 1]";
+        assert nrParameters >= 1 : "nrParameters must be >= 1";
+        assert (includeLevel >= 0) && (includeLevel < fanOuts.length) : "includeLevel must be in [0, depth)";
+        this.fanOuts = fanOuts.clone();
+        this.regexRatio = regexRatio;
+        this.nrParameters = nrParameters;
+        this.includeLevel = includeLevel;
+        this.seed = seed;
+    }
+
+    /**
+     * Create a generator for a tree shape, with 10% regular expressions, 2 parameters per leaf and no includes.
+     *
+     * @param shape Fan-out per level, "F1xF2x...", such as "10x10x100".
+     * @return Generator.
+     */
+    @Nonnull
+    static TreeGenerator of(@Nonnull final String shape) {
+        final String[] parts = shape.split("x");
+        final int[] fanOuts = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            fanOuts[i] = Integer.parseInt(parts[i].trim());
+            assert fanOuts[i] >= 1 : "Fan-out must be >= 1, shape=" + shape;
+        }
+        return new TreeGenerator(fanOuts, 0.1, 2, 0, 0);
+    }
+
+    /**
+     * Return a generator with a different fraction of regular expressions.
+     *
+     * @param regexRatio Fraction of children which are regular expressions, in [0, 1].
+     * @return Generator.
+     */
+    @Nonnull
+    TreeGenerator withRegexRatio(final double regexRatio) {
+        return new TreeGenerator(fanOuts, regexRatio, nrParameters, includeLevel, seed);
+    }
+
+    /**
+     * Return a generator with a different number of parameters per leaf.
+     *
+     * @param nrParameters Number of parameters per leaf.
+     * @return Generator.
+     */
+    @Nonnull
+    TreeGenerator withNrParameters(final int nrParameters) {
+        return new TreeGenerator(fanOuts, regexRatio, nrParameters, includeLevel, seed);
+    }
+
+    /**
+     * Return a generator which writes the subtrees at a level to include files.
+     *
+     * @param includeLevel Level of which the nodes are written to include files, 1 for the children of
+     *                     the root, or 0 for no include files.
+     * @return Generator.
+     */
+    @Nonnull
+    TreeGenerator withIncludeLevel(final int includeLevel) {
+        return new TreeGenerator(fanOuts, regexRatio, nrParameters, includeLevel, seed);
+    }
+
+    /**
+     * Return a generator with a different seed for the parameter values and queries.
+     *
+     * @param seed Seed.
+     * @return Generator.
+     */
+    @Nonnull
+    TreeGenerator withSeed(final long seed) {
+        return new TreeGenerator(fanOuts, regexRatio, nrParameters, includeLevel, seed);
+    }
+
+    /**
+     * Return the number of levels of the tree.
+     *
+     * @return Depth, excluding the root.
+     */
+    int getDepth() {
+        return fanOuts.length;
+    }
+
+    /**
+     * Return the number of nodes of the tree.
+     *
+     * @return Number of nodes, including the root.
+     */
+    long getNrNodes() {
+        long nrNodes = 1;
+        long nrNodesAtLevel = 1;
+        for (final int fanOut : fanOuts) {
+            nrNodesAtLevel *= fanOut;
+            nrNodes += nrNodesAtLevel;
+        }
+        return nrNodes;
+    }
+
+    /**
+     * Return whether a child is a regular expression, rather than a literal.
+     *
+     * @param index Index of the child.
+     * @return True for a regular expression.
+     */
+    boolean isRegex(final int index) {
+        return Math.floor((index + 1) * regexRatio) > Math.floor(index * regexRatio);
+    }
+
+    /**
+     * Return a search term which matches a child.
+     *
+     * @param index  Index of the child.
+     * @param random Random generator, for the variable part of terms for regular expressions.
+     * @param regex  True if the child is a regular expression.
+     * @return Search term.
+     */
+    @Nonnull
+    private static String createTerm(final int index, @Nonnull final Random random, final boolean regex) {
+        return regex ? ("r" + index + '-' + random.nextInt(1000)) : ("v" + index);
+    }
+
+    /**
+     * Write the configuration, and its include files, if any.
+     *
+     * @param rootFile File of the configuration. Include files are written in the same directory.
+     * @throws IOException If a file cannot be written.
+     */
+    void write(@Nonnull final Path rootFile) throws IOException {
+        Files.createDirectories(rootFile.toAbsolutePath().getParent());
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(rootFile, UTF_8), 1 << 16)) {
+            writeRoot(writer, rootFile);
+        }
+    }
+
+    /**
+     * Create a configuration from the JSON document of the tree, without include files. Use
+     * {@link #createConfiguration(Path, int)} for large trees.
+     *
+     * @param resultCacheSize Size of the result cache, 0 to search the tree for every query.
+     * @return Configuration.
+     * @throws IncorrectConfigurationException If the configuration is incorrect.
+     */
+    @Nonnull
+    Configuration createConfiguration(final int resultCacheSize) throws IncorrectConfigurationException {
+        assert includeLevel == 0 : "Include files require a directory";
+        final StringWriter writer = new StringWriter();
+        try {
+            writeRoot(writer, null);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Configuration(new ConfigurationServiceProperties("classpath:empty.json", resultCacheSize), writer.toString());
+    }
+
+    /**
+     * Write the tree to a directory and create a configuration from it.
+     *
+     * @param directory       Directory to write the configuration (and include files) to.
+     * @param resultCacheSize Size of the result cache, 0 to search the tree for every query.
+     * @return Configuration.
+     * @throws IOException                     If a file cannot be written.
+     * @throws IncorrectConfigurationException If the configuration is incorrect.
+     */
+    @Nonnull
+    Configuration createConfiguration(
+            @Nonnull final Path directory,
+            final int resultCacheSize) throws IOException, IncorrectConfigurationException {
+        final Path rootFile = directory.resolve("root.json").toAbsolutePath();
+        write(rootFile);
+        return new Configuration(new ConfigurationServiceProperties("file:" + rootFile, resultCacheSize));
+    }
+
+    /**
+     * Create a query which matches the first literal child at every level, or a regular expression
+     * if a level has no literal children.
+     *
+     * @return Query, as (level-name: search-term).
+     */
+    @Nonnull
+    Map<String, String> createLiteralQuery() {
+        final Random random = new Random(seed);
+        final Map<String, String> query = new HashMap<>();
+        for (int level = 0; level < fanOuts.length; ++level) {
+            final int index = findChild(fanOuts[level], false);
+            query.put(LEVEL_PREFIX + level, createTerm(index, random, isRegex(index)));
+        }
+        return query;
+    }
+
+    /**
+     * Create a query which matches the first literal child at every level, except at the last level,
+     * where it matches the first regular expression, if there is one.
+     *
+     * @return Query, as (level-name: search-term).
+     */
+    @Nonnull
+    Map<String, String> createRegexQuery() {
+        final Map<String, String> query = createLiteralQuery();
+        final int last = fanOuts.length - 1;
+        final int index = findChild(fanOuts[last], true);
+        query.put(LEVEL_PREFIX + last, createTerm(index, new Random(seed), isRegex(index)));
+        return query;
+    }
+
+    /**
+     * Create a query which does not match any child of the root.
+     *
+     * @return Query, as (level-name: search-term).
+     */
+    @Nonnull
+    Map<String, String> createMissingQuery() {
+        final Map<String, String> query = createLiteralQuery();
+        query.put(LEVEL_PREFIX + 0, MISSING_TERM);
+        return query;
+    }
+
+    /**
+     * Create the path of the leaf found by {@link #createLiteralQuery()}. Paths consist of match strings.
+     *
+     * @return Full node path.
+     */
+    @Nonnull
+    String createLiteralPath() {
+        final StringBuilder sb = new StringBuilder();
+        for (int level = 0; level < fanOuts.length; ++level) {
+            final int index = findChild(fanOuts[level], false);
+            sb.append((level == 0) ? "" : "/").append(createMatch(index, isRegex(index)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Create a query workload. At every level, the child is chosen with a Zipf distribution over the
+     * children: child k (from 1) is chosen with a probability proportional to 1 / k^skew. Children are
+     * ranked in a different, random order for every level, so the hot paths are spread over the tree.
+     *
+     * @param nrQueries Number of queries.
+     * @param skew      Exponent of the Zipf distribution, 0 for a uniform distribution.
+     * @param missRatio Fraction of queries which do not match a leaf.
+     * @return Queries, as (level-name: search-term).
+     */
+    @Nonnull
+    List<Map<String, String>> createQueries(final int nrQueries, final double skew, final double missRatio) {
+        final Random random = new Random(seed);
+        final int[][] rankings = new int[fanOuts.length][];
+        final double[][] distributions = new double[fanOuts.length][];
+        for (int level = 0; level < fanOuts.length; ++level) {
+            rankings[level] = createRanking(fanOuts[level], random);
+            distributions[level] = createZipfDistribution(fanOuts[level], skew);
+        }
+        final List<Map<String, String>> queries = new ArrayList<>(nrQueries);
+        for (int i = 0; i < nrQueries; ++i) {
+            final boolean miss = random.nextDouble() < missRatio;
+            final int missLevel = random.nextInt(fanOuts.length);
+            final Map<String, String> query = new HashMap<>();
+            for (int level = 0; level < fanOuts.length; ++level) {
+                final int index = rankings[level][sample(distributions[level], random)];
+                query.put(LEVEL_PREFIX + level, (miss && (level == missLevel)) ?
+                        MISSING_TERM : createTerm(index, random, isRegex(index)));
+            }
+            queries.add(query);
+        }
+        return queries;
+    }
+
+    /**
+     * Convert a query to the query string of 'GET /tree'.
+     *
+     * @param query Query, as (level-name: search-term).
+     * @return Query string, without '?'.
+     */
+    @Nonnull
+    String toQueryString(@Nonnull final Map<String, String> query) {
+        final StringBuilder sb = new StringBuilder();
+        for (int level = 0; level < fanOuts.length; ++level) {
+            final String levelName = LEVEL_PREFIX + level;
+            sb.append((level == 0) ? "" : "&").append(levelName).append('=').append(query.get(levelName));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        return "TreeGenerator{fanOuts=" + Arrays.toString(fanOuts) + ", regexRatio=" + regexRatio +
+                ", nrParameters=" + nrParameters + ", includeLevel=" + includeLevel + ", seed=" + seed + '}';
+    }
+
+    private void writeRoot(@Nonnull final Writer writer, @Nullable final Path rootFile) throws IOException {
+        writer.write("{\"levels\":[");
+        for (int level = 0; level < fanOuts.length; ++level) {
+            writer.write(((level == 0) ? "\"" : ",\"") + LEVEL_PREFIX + level + '"');
+        }
+        writer.write("],");
+        writeChildren(writer, rootFile, "n", 0, new Random(seed));
+        writer.write('}');
+    }
+
+    private void writeNode(
+            @Nonnull final Writer writer,
+            @Nullable final Path rootFile,
+            @Nonnull final String name,
+            final int level,
+            final int index,
+            @Nonnull final Random random) throws IOException {
+        writer.write("{\"match\":\"" + createMatch(index, isRegex(index)) + "\",");
+        if (level == (fanOuts.length - 1)) {
+            writer.write("\"parameters\":[");
+            for (int i = 0; i < nrParameters; ++i) {
+                writer.write(((i == 0) ? "{\"key\":\"" : ",{\"key\":\"") + PARAMETER_PREFIX + i +
+                        "\",\"value\":\"" + random.nextInt(NR_PARAMETER_VALUES) + "\"}");
+            }
+            writer.write(']');
+        } else {
+            writeChildren(writer, rootFile, name, level + 1, random);
+        }
+        writer.write('}');
+    }
+
+    private void writeChildren(
+            @Nonnull final Writer writer,
+            @Nullable final Path rootFile,
+            @Nonnull final String name,
+            final int level,
+            @Nonnull final Random random) throws IOException {
+        writer.write("\"nodes\":[");
+        for (int index = 0; index < fanOuts[level]; ++index) {
+            writer.write((index == 0) ? "" : ",");
+            final String childName = name + '-' + index;
+            if ((rootFile != null) && (includeLevel == (level + 1))) {
+
+                // Write the child to an include file of its own.
+                final Path includeFile = rootFile.resolveSibling(childName + ".json");
+                try (Writer includeWriter = new BufferedWriter(Files.newBufferedWriter(includeFile, UTF_8), 1 << 16)) {
+                    writeNode(includeWriter, rootFile, childName, level, index, random);
+                }
+                writer.write("{\"include\":\"file:" + includeFile.toAbsolutePath() + "\"}");
+            } else {
+                writeNode(writer, rootFile, childName, level, index, random);
+            }
+        }
+        writer.write(']');
+    }
+
+    @Nonnull
+    private static String createMatch(final int index, final boolean regex) {
+        return regex ? ("r" + index + "-[0-9]+") : ("v" + index);
+    }
+
+    /**
+     * Find the first child which is a regular expression, or a literal.
+     *
+     * @param fanOut Number of children.
+     * @param regex  True to find a regular expression, false to find a literal.
+     * @return Index of the first such child, or 0 if there is none.
+     */
+    private int findChild(final int fanOut, final boolean regex) {
+        for (int index = 0; index < fanOut; ++index) {
+            if (isRegex(index) == regex) {
+                return index;
+            }
+        }
+        return 0;
+    }
+
+    @Nonnull
+    private static int[] createRanking(final int fanOut, @Nonnull final Random random) {
+        final int[] ranking = new int[fanOut];
+        for (int i = 0; i < fanOut; ++i) {
+            ranking[i] = i;
+        }
+        for (int i = fanOut - 1; i > 0; --i) {
+            final int j = random.nextInt(i + 1);
+            final int swap = ranking[i];
+            ranking[i] = ranking[j];
+            ranking[j] = swap;
+        }
+        return ranking;
+    }
+
+    /**
+     * Create the cumulative distribution of a Zipf distribution.
+     *
+     * @param n    Number of elements.
+     * @param skew Exponent.
+     * @return Cumulative probabilities, the last of which is 1.
+     */
+    @Nonnull
+    private static double[] createZipfDistribution(final int n, final double skew) {
+        final double[] cumulative = new double[n];
+        double sum = 0.0;
+        for (int k = 0; k < n; ++k) {
+            sum += 1.0 / Math.pow(k + 1, skew);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; ++k) {
+            cumulative[k] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int sample(@Nonnull final double[] cumulative, @Nonnull final Random random) {
+        final int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min((i >= 0) ? i : (-i - 1), cumulative.length - 1);
+    }
+}
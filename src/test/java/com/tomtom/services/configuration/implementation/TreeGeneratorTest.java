@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.implementation.ConfigurationCompiler.Statistics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TreeGeneratorTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TreeGeneratorTest.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testShape() throws Exception {
+        LOG.info("testShape");
+        final TreeGenerator generator = TreeGenerator.of("3x4x5").withRegexRatio(0.25).withNrParameters(3);
+        assertEquals(3, generator.getDepth());
+        assertEquals(76, generator.getNrNodes());
+        final Configuration configuration = generator.createConfiguration(0);
+        final Statistics statistics = Statistics.of(configuration.getRoot());
+        assertEquals(76, statistics.nrNodes);
+        assertEquals(3, statistics.depth);
+        assertEquals(60 * 3, statistics.nrParameters);
+
+        // None of 3, 1 of 4 and 1 of 5 children are regular expressions.
+        assertEquals(3 + 12, statistics.nrRegexNodes);
+
+        assertNotNull(configuration.findNode(generator.createLiteralPath()));
+        assertFalse(configuration.matchNode(Collections.singletonList(generator.createLiteralQuery())).isEmpty());
+        assertEquals("level0=v0&level1=v0&level2=r3-[0-9]+",
+                configuration.matchNode(Collections.singletonList(generator.createRegexQuery())).get(0).getMatched());
+        assertTrue(configuration.matchNode(Collections.singletonList(generator.createMissingQuery())).isEmpty());
+    }
+
+    @Test
+    public void testIncludes() throws Exception {
+        LOG.info("testIncludes");
+        final TreeGenerator generator = TreeGenerator.of("3x4x5");
+        final Configuration configuration = generator.createConfiguration(0);
+        final Configuration included = generator.withIncludeLevel(2).createConfiguration(folder.getRoot().toPath(), 0);
+        assertEquals(1 + 12, included.getSnapshot().getSources().size());
+        assertEquals(configuration.getRoot().getContentHash(), included.getRoot().getContentHash());
+    }
+
+    @Test
+    public void testQueries() throws Exception {
+        LOG.info("testQueries");
+        final TreeGenerator generator = TreeGenerator.of("20x20").withSeed(1);
+        final Configuration configuration = generator.createConfiguration(0);
+        final List<Map<String, String>> queries = generator.createQueries(2000, 1.0, 0.1);
+        assertEquals(queries, generator.createQueries(2000, 1.0, 0.1));
+        assertTrue(generator.toQueryString(queries.get(0)).startsWith("level0="));
+
+        // Misses are as frequent as requested and the most frequent child is far more frequent than average.
+        int nrMisses = 0;
+        final Map<String, Integer> counts = new HashMap<>();
+        for (final Map<String, String> query : queries) {
+            if (configuration.matchNode(Collections.singletonList(query)).isEmpty()) {
+                ++nrMisses;
+            }
+            counts.merge(query.get("level0"), 1, Integer::sum);
+        }
+        assertTrue("nrMisses=" + nrMisses, (nrMisses > 100) && (nrMisses < 300));
+        assertTrue(Collections.max(counts.values()) > (3 * (2000 / 20)));
+    }
+}